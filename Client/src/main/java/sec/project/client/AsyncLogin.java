@@ -1,8 +1,11 @@
 package sec.project.client;
 
 import sec.project.library.Acknowledge;
-import sec.project.library.AsymmetricCrypto;
 import sec.project.library.ClientAPI;
+import sec.project.library.SessionCrypto;
+import sec.project.library.SignedPayload;
+
+import javax.crypto.SecretKey;
 
 import java.rmi.RemoteException;
 import java.security.PublicKey;
@@ -12,10 +15,18 @@ public class AsyncLogin implements Runnable {
 
     private Map.Entry<PublicKey, ClientAPI> stub;
     private Client client;
+    private SecretKey sessionKey;
+    private byte[] wrappedSessionKey;
+    private long nonce;
+    private byte[] signature;
 
-    public AsyncLogin(Map.Entry<PublicKey, ClientAPI> stub, Client client){
+    public AsyncLogin(Map.Entry<PublicKey, ClientAPI> stub, Client client, SecretKey sessionKey, byte[] wrappedSessionKey, long nonce, byte[] signature){
         this.stub = stub;
         this.client = client;
+        this.sessionKey = sessionKey;
+        this.wrappedSessionKey = wrappedSessionKey;
+        this.nonce = nonce;
+        this.signature = signature;
     }
 
     @Override
@@ -23,8 +34,11 @@ public class AsyncLogin implements Runnable {
 
         try{
 
-            Acknowledge response = this.stub.getValue().login(this.client.getClientPublicKey());
-            if (AsymmetricCrypto.validateDigitalSignature(response.getSignature(), this.stub.getKey(), response.getMessage()) && this.client.isLogging){
+            Acknowledge response = this.stub.getValue().login(this.client.getClientPublicKey(), this.wrappedSessionKey, this.nonce, this.signature);
+
+            //only the server that unwrapped the session key can authenticate its answer with it
+            if (SessionCrypto.validateMac(response.getSignature(), SignedPayload.login(response.getMessage()), this.sessionKey) && this.client.isLogging){
+                this.client.getSessionKeys().put(this.stub.getKey(), this.sessionKey);
                 this.client.getLoginResponses().put(stub.getKey(), response.getMessage());
                 this.client.incrementNumberOfAcks();
             }
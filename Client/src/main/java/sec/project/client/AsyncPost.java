@@ -2,6 +2,8 @@ package sec.project.client;
 
 import sec.project.library.Acknowledge;
 import sec.project.library.ClientAPI;
+import sec.project.library.SessionCrypto;
+import sec.project.library.SignedPayload;
 
 import java.rmi.RemoteException;
 import java.security.PublicKey;
@@ -15,7 +17,7 @@ public class AsyncPost implements Runnable {
     private String message;
     private byte[] signature;
     private String mode;
-    private PublicKey toWriteClientPublicKey;
+    private long toWriteClientId;
     private int writeBackWts;
 
     public AsyncPost(Map.Entry<PublicKey, ClientAPI>stub, Client client, String message, byte[] signature){
@@ -26,12 +28,12 @@ public class AsyncPost implements Runnable {
         this.mode = "POST";
     }
 
-    public AsyncPost(Map.Entry<PublicKey, ClientAPI> stub, Client client, PublicKey toWriteClientPublicKey, String message, byte[] signature) {
+    public AsyncPost(Map.Entry<PublicKey, ClientAPI> stub, Client client, long toWriteClientId, String message, byte[] signature) {
         this.message = message;
         this.signature = signature;
         this.client = client;
         this.writeBackWts = this.client.getWriteBackWts();
-        this.toWriteClientPublicKey = toWriteClientPublicKey;
+        this.toWriteClientId = toWriteClientId;
         this.stub = stub;
         this.mode = "WRITEBACK";
     }
@@ -40,17 +42,17 @@ public class AsyncPost implements Runnable {
     public void run() {
 
         int postWts = 0;
-        PublicKey clientPublicKey = null;
+        long clientId;
         boolean isWriteBack;
 
         if (mode.equals("POST")) {
             postWts = this.client.getPostWts();
-            clientPublicKey = this.client.getClientPublicKey();
+            clientId = this.client.getClientId();
             isWriteBack = false;
 
         } else if (mode.equals("WRITEBACK")) {
             postWts = this.writeBackWts;
-            clientPublicKey = this.toWriteClientPublicKey;
+            clientId = this.toWriteClientId;
             isWriteBack = true;
 
         } else {
@@ -60,9 +62,13 @@ public class AsyncPost implements Runnable {
 
         try {
 
-            Acknowledge acknowledge = this.stub.getValue().post(clientPublicKey, message, postWts, signature, isWriteBack);
+            Acknowledge acknowledge = this.stub.getValue().post(clientId, message, postWts, signature, isWriteBack, this.client.getClientId());
 
-            if (acknowledge.getWts() == postWts) {
+            //a write-back is answered under this client's session too, not the announcement's author's
+            boolean authentic = SessionCrypto.validateMac(acknowledge.getSignature(),
+                    SignedPayload.acknowledge(acknowledge.getMessage(), acknowledge.getWts()), this.client.getSessionKeys().get(this.stub.getKey()));
+
+            if (authentic && acknowledge.getWts() == postWts) {
                 if((mode.equals("POST") && postWts == this.client.getPostWts()) || ((mode.equals("WRITEBACK") && postWts == this.client.getWriteBackWts()))){
                     this.client.getPostAcks().put(this.stub.getKey(), acknowledge);
                     this.client.incrementNumberOfAcks();
@@ -81,6 +87,8 @@ public class AsyncPost implements Runnable {
 
             return;
 
+        } catch (Exception e2) {
+            e2.printStackTrace();
         }
     }
 
@@ -2,6 +2,9 @@ package sec.project.client;
 
 import sec.project.library.Acknowledge;
 import sec.project.library.ClientAPI;
+import sec.project.library.KeyRegistry;
+import sec.project.library.SessionCrypto;
+import sec.project.library.SignedPayload;
 
 import java.rmi.RemoteException;
 import java.security.PublicKey;
@@ -27,9 +30,12 @@ public class AsyncPostGeneral implements Runnable {
     public void run() {
 
         try {
-            Acknowledge acknowledge = this.stub.getValue().postGeneral(this.client.getClientPublicKey(), message, this.postGeneralWts, signature, null, null);
+            Acknowledge acknowledge = this.stub.getValue().postGeneral(this.client.getClientId(), message, this.postGeneralWts, signature, null, KeyRegistry.NONE);
 
-            if (acknowledge.getWts() == this.postGeneralWts){
+            boolean authentic = SessionCrypto.validateMac(acknowledge.getSignature(),
+                    SignedPayload.acknowledge(acknowledge.getMessage(), acknowledge.getWts()), this.client.getSessionKeys().get(this.stub.getKey()));
+
+            if (authentic && acknowledge.getWts() == this.postGeneralWts){
                 if(this.postGeneralWts == this.client.getPostGeneralWts()){
                     this.client.getPostGeneralAcks().put(this.stub.getKey(), acknowledge);
                     this.client.incrementNumberOfAcks();
@@ -47,6 +53,8 @@ public class AsyncPostGeneral implements Runnable {
 
             return;
 
+        } catch (Exception e2) {
+            e2.printStackTrace();
         }
     }
 
@@ -3,14 +3,19 @@ package sec.project.client;
 import org.javatuples.Quartet;
 import org.javatuples.Triplet;
 import sec.project.library.Acknowledge;
-import sec.project.library.AsymmetricCrypto;
+import sec.project.library.AnnouncementTree;
 import sec.project.library.ClientAPI;
+import sec.project.library.ParallelVerifier;
 import sec.project.library.ReadView;
+import sec.project.library.SessionCrypto;
+import sec.project.library.SignedPayload;
 
 import java.io.UnsupportedEncodingException;
 import java.rmi.RemoteException;
 import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 public class AsyncRead implements Runnable {
@@ -18,15 +23,17 @@ public class AsyncRead implements Runnable {
     private Map.Entry<PublicKey, ClientAPI> stub;
     private Client client;
     private PublicKey toReadClientPublicKey;
+    private long toReadClientId;
     private int numberOfAnnouncements;
     private byte[] signature;
     private int rid;
 
     //Runnable(this, toReadClientPublicKey, Integer.parseInt(numberOfAnnouncements), signature)
 
-    public AsyncRead(Map.Entry<PublicKey, ClientAPI> stub, Client client, PublicKey toReadClientPublicKey, int numberOfAnnouncements, byte[] signature){
+    public AsyncRead(Map.Entry<PublicKey, ClientAPI> stub, Client client, PublicKey toReadClientPublicKey, long toReadClientId, int numberOfAnnouncements, byte[] signature){
         this.client = client;
         this.toReadClientPublicKey = toReadClientPublicKey;
+        this.toReadClientId = toReadClientId;
         this.signature = signature;
         this.stub = stub;
         this.numberOfAnnouncements = numberOfAnnouncements;
@@ -38,22 +45,32 @@ public class AsyncRead implements Runnable {
 
         try {
 
-            ReadView readResponse = this.stub.getValue().read(this.toReadClientPublicKey, this.numberOfAnnouncements,
-                    this.rid, this.signature, this.client.getClientPublicKey());
+            ReadView readResponse = this.stub.getValue().read(this.toReadClientId, this.numberOfAnnouncements,
+                    this.rid, this.signature, this.client.getClientId());
 
-            if (AsymmetricCrypto.validateDigitalSignature(readResponse.getSignature(), this.stub.getKey(),
-                    AsymmetricCrypto.transformQuartetToString(readResponse.getAnnounces()) + readResponse.getRid())
+            //one authenticator covers the whole response, and the announcements in it are checked in parallel
+            byte[] root = AnnouncementTree.root(readResponse.getAnnounces());
+            if (Arrays.equals(root, readResponse.getRoot()) && SessionCrypto.validateMac(readResponse.getSignature(),
+                    SignedPayload.readView(this.toReadClientId, root, readResponse.getRid()), this.client.getSessionKeys().get(this.stub.getKey()))
                     && this.rid == readResponse.getRid()) {
 
-                boolean valid = true;
-                for (Quartet<Integer, String, byte[], ArrayList<Integer>> announce : readResponse.getAnnounces()) {
-                    if (!(AsymmetricCrypto.validateDigitalSignature(announce.getValue2(), toReadClientPublicKey,
-                            announce.getValue1() + announce.getValue0()))) {
-                        valid = false;
+                //the same root as a view already verified holds the same signatures, the other servers' answers
+                //and an unchanged board read again need none of them checked
+                boolean verified = this.client.isVerifiedRoot(this.toReadClientId, root);
+                if (!verified) {
+                    List<Triplet<byte[], PublicKey, SignedPayload>> checks = new ArrayList<>();
+                    for (Quartet<Integer, String, byte[], ArrayList<Integer>> announce : readResponse.getAnnounces()) {
+                        checks.add(new Triplet<>(announce.getValue2(), toReadClientPublicKey,
+                                SignedPayload.post(announce.getValue1(), announce.getValue0())));
+                    }
+
+                    verified = ParallelVerifier.validateAll(checks);
+                    if (verified) {
+                        this.client.setVerifiedRoot(this.toReadClientId, root);
                     }
                 }
 
-                if (valid) {
+                if (verified) {
                     if(this.rid == this.client.getReadRid()){
                         this.client.getReadResponses().put(this.stub.getKey(), readResponse);
                         this.client.incrementNumberOfAcks();
@@ -3,13 +3,21 @@ package sec.project.client;
 import org.javatuples.Quartet;
 import org.javatuples.Quintet;
 import org.javatuples.Triplet;
+import sec.project.library.AnnouncementTree;
 import sec.project.library.AsymmetricCrypto;
 import sec.project.library.ClientAPI;
+import sec.project.library.KeyRegistry;
+import sec.project.library.ParallelVerifier;
 import sec.project.library.ReadView;
+import sec.project.library.SessionCrypto;
+import sec.project.library.SignedPayload;
 
 import java.rmi.RemoteException;
 import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class AsyncReadGeneral implements Runnable {
@@ -36,23 +44,40 @@ public class AsyncReadGeneral implements Runnable {
 
         try {
 
-            ReadView readGeneralResponse = this.stub.getValue().readGeneral(numberOfAnnouncements, this.ridGeneral, signature, this.client.getClientPublicKey());
+            ReadView readGeneralResponse = this.stub.getValue().readGeneral(numberOfAnnouncements, this.ridGeneral, signature, this.client.getClientId());
 
-            if(AsymmetricCrypto.validateDigitalSignature(readGeneralResponse.getSignature(), this.stub.getKey(),
-                    AsymmetricCrypto.transformQuintetToString(readGeneralResponse.getAnnouncesGeneral()) + readGeneralResponse.getRid()) && this.ridGeneral == readGeneralResponse.getRid()){
+            //one authenticator covers the whole response, and the announcements in it are checked in parallel
+            byte[] root = AnnouncementTree.generalRoot(readGeneralResponse.getAnnouncesGeneral());
+            if(Arrays.equals(root, readGeneralResponse.getRoot()) && SessionCrypto.validateMac(readGeneralResponse.getSignature(),
+                    SignedPayload.readGeneralView(root, readGeneralResponse.getRid()), this.client.getSessionKeys().get(this.stub.getKey()))
+                    && this.ridGeneral == readGeneralResponse.getRid()){
 
-                boolean valid = true;
-                for(Quintet<Integer, String, String, byte[], ArrayList<Integer>> announce : readGeneralResponse.getAnnouncesGeneral()){
+                //a root already verified needs neither the authors' certificates nor their signatures
+                boolean verified = this.client.isVerifiedRoot(KeyRegistry.NONE, root);
+                if(!verified){
 
-                    PublicKey clientPublicKey = AsymmetricCrypto.getPublicKeyFromCert("data/keys/client" + announce.getValue2() + "_certificate.crt");
+                    //each author's certificate is read once per response
+                    Map<String, PublicKey> authors = new HashMap<>();
+                    List<Triplet<byte[], PublicKey, SignedPayload>> checks = new ArrayList<>();
+                    for(Quintet<Integer, String, String, byte[], ArrayList<Integer>> announce : readGeneralResponse.getAnnouncesGeneral()){
 
-                    if(!(AsymmetricCrypto.validateDigitalSignature(announce.getValue3(), clientPublicKey,
-                            announce.getValue1() + announce.getValue0() + announce.getValue2()))){
-                        valid = false;
+                        PublicKey clientPublicKey = authors.get(announce.getValue2());
+                        if(clientPublicKey == null){
+                            clientPublicKey = AsymmetricCrypto.getPublicKeyFromCert("data/keys/client" + announce.getValue2() + "_certificate.crt");
+                            authors.put(announce.getValue2(), clientPublicKey);
+                        }
+
+                        checks.add(new Triplet<>(announce.getValue3(), clientPublicKey,
+                                SignedPayload.postGeneral(announce.getValue1(), announce.getValue0(), announce.getValue2())));
+                    }
+
+                    verified = ParallelVerifier.validateAll(checks);
+                    if(verified){
+                        this.client.setVerifiedRoot(KeyRegistry.NONE, root);
                     }
                 }
 
-                if(valid){
+                if(verified){
                     if(this.ridGeneral == this.client.getReadGeneralRid()){
                         this.client.getReadGeneralResponses().put(this.stub.getKey(), readGeneralResponse);
                         this.client.incrementNumberOfAcks();
@@ -6,18 +6,26 @@ import org.javatuples.Quintet;
 import sec.project.library.Acknowledge;
 import sec.project.library.AsymmetricCrypto;
 import sec.project.library.ClientAPI;
+import sec.project.library.KeyRegistry;
 import sec.project.library.ReadView;
+import sec.project.library.SessionCrypto;
+import sec.project.library.SignedPayload;
+
+import javax.crypto.SecretKey;
 
 import java.io.*;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Client {
 
     private KeyStore clientKeyStore;
     private PrivateKey clientPrivateKey;
     private PublicKey clientPublicKey;
+    private long clientId;
     private Map<PublicKey, ClientAPI> serverPublicKeys;
     private Scanner scanner;
     private String clientNumber;
@@ -34,6 +42,9 @@ public class Client {
     private Map<PublicKey, ReadView> readResponses;
     private Map<PublicKey, ReadView> readGeneralResponses;
     private Map<PublicKey, String> loginResponses;
+    private Map<PublicKey, SecretKey> sessionKeys;
+    private Map<Long, byte[]> verifiedRoots;
+    private AtomicLong loginNonce;
     private AtomicInteger numberOfAcks;
     private AtomicInteger numberOfAborts;
     private boolean exception;
@@ -71,6 +82,7 @@ public class Client {
                 this.clientKeyStore = AsymmetricCrypto.getKeyStore("data/keys/client" + this.clientNumber + "_keystore.jks", this.keyStorePassword);
                 this.clientPrivateKey = AsymmetricCrypto.getPrivateKey(this.clientKeyStore, this.privateKeyPassword, "client" + this.clientNumber);
                 this.clientPublicKey = AsymmetricCrypto.getPublicKeyFromCert("data/keys/client" + this.clientNumber + "_certificate.crt");
+                this.clientId = KeyRegistry.fingerprint(this.clientPublicKey);
 
                 for (Map.Entry<Integer, ClientAPI> entry : stubs.entrySet()) {
                     PublicKey serverPublicKey = AsymmetricCrypto.getPublicKeyFromCert("data/keys/server" + entry.getKey().intValue() + "_certificate.crt");
@@ -98,6 +110,10 @@ public class Client {
         this.readResponses = new HashMap<>();
         this.readGeneralResponses = new HashMap<>();
         this.loginResponses = new HashMap<>();
+        this.sessionKeys = new ConcurrentHashMap<>();
+        this.verifiedRoots = new ConcurrentHashMap<>();
+        //seeded from the clock so a restarted client's logins still come after the ones servers have seen
+        this.loginNonce = new AtomicLong(System.currentTimeMillis() * 1000);
         this.seqNumber = 1;
         this.postWts = 0;
         this.postGeneralWts = 0;
@@ -136,7 +152,7 @@ public class Client {
                         this.numberOfAcks.set(0);
                         this.numberOfAborts.set(0);
 
-                        signature = AsymmetricCrypto.wrapDigitalSignature(this.clientNumber, this.clientPrivateKey);
+                        signature = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.register(this.clientNumber), this.clientPrivateKey);
 
                         for (Map.Entry<PublicKey, ClientAPI> entry : serverPublicKeys.entrySet()) {
                             AsyncRegister post = new AsyncRegister(entry, this.clientPublicKey, this.clientNumber, signature, this);
@@ -195,13 +211,15 @@ public class Client {
 
                         this.exception = false;
 
+                        resumeSessions();
+
                         this.postWts++;
 
                         this.postAcks = new HashMap<>();
                         this.numberOfAcks.set(0);
                         this.numberOfAborts.set(0);
 
-                        signature = AsymmetricCrypto.wrapDigitalSignature(message + this.postWts, this.clientPrivateKey);
+                        signature = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post(message, this.postWts), this.clientPrivateKey);
 
                         for (Map.Entry<PublicKey, ClientAPI> entry : this.serverPublicKeys.entrySet()) {
                             AsyncPost post = new AsyncPost(entry, this, message, signature);
@@ -268,7 +286,7 @@ public class Client {
                         this.numberOfAcks.set(0);
                         this.numberOfAborts.set(0);
 
-                        signature = AsymmetricCrypto.wrapDigitalSignature(message + this.postGeneralWts + this.clientNumber, this.clientPrivateKey);
+                        signature = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.postGeneral(message, this.postGeneralWts, this.clientNumber), this.clientPrivateKey);
 
                         for (Map.Entry<PublicKey, ClientAPI> entry : this.serverPublicKeys.entrySet()) {
                             AsyncPostGeneral postGeneral = new AsyncPostGeneral(entry, this, this.postGeneralWts, message, signature);
@@ -332,17 +350,20 @@ public class Client {
 
                         this.exception = false;
 
+                        resumeSessions();
+
                         this.readRid++;
 
                         this.readResponses = new HashMap<>();
                         this.numberOfAcks.set(0);
                         this.numberOfAborts.set(0);
 
-                        signature = AsymmetricCrypto.wrapDigitalSignature(toReadClientPublicKey.toString()
-                                + numberOfAnnouncements + this.readRid, this.clientPrivateKey);
+                        long toReadClientId = KeyRegistry.fingerprint(toReadClientPublicKey);
+                        SignedPayload readRequest = SignedPayload.read(toReadClientId, Integer.parseInt(numberOfAnnouncements), this.readRid);
 
                         for (Map.Entry<PublicKey, ClientAPI> entry : this.serverPublicKeys.entrySet()) {
-                            AsyncRead read = new AsyncRead(entry, this, toReadClientPublicKey, Integer.parseInt(numberOfAnnouncements), signature);
+                            signature = authenticate(entry.getKey(), readRequest);
+                            AsyncRead read = new AsyncRead(entry, this, toReadClientPublicKey, toReadClientId, Integer.parseInt(numberOfAnnouncements), signature);
                             new Thread(read).start();
                         }
 
@@ -419,7 +440,7 @@ public class Client {
 
                             for (Map.Entry<PublicKey, ClientAPI> entry : this.serverPublicKeys.entrySet()) {
                                 this.writeBackWts = announcement.getValue0();
-                                AsyncPost writeBack = new AsyncPost(entry, this, toReadClientPublicKey, announcement.getValue1(), announcement.getValue2());
+                                AsyncPost writeBack = new AsyncPost(entry, this, toReadClientId, announcement.getValue1(), announcement.getValue2());
                                 new Thread(writeBack).start();
                             }
 
@@ -462,15 +483,18 @@ public class Client {
 
                         this.exception = false;
 
+                        resumeSessions();
+
                         this.readGeneralRid++;
 
                         this.readGeneralResponses = new HashMap<>();
                         this.numberOfAcks.set(0);
                         this.numberOfAborts.set(0);
 
-                        signature = AsymmetricCrypto.wrapDigitalSignature(numberOfAnnouncements + this.readGeneralRid, this.clientPrivateKey);
+                        SignedPayload readGeneralRequest = SignedPayload.readGeneral(Integer.parseInt(numberOfAnnouncements), this.readGeneralRid);
 
                         for (Map.Entry<PublicKey, ClientAPI> entry : this.serverPublicKeys.entrySet()) {
+                            signature = authenticate(entry.getKey(), readGeneralRequest);
                             AsyncReadGeneral readGeneral = new AsyncReadGeneral(entry, this, Integer.parseInt(numberOfAnnouncements), signature);
                             new Thread(readGeneral).start();
                         }
@@ -583,25 +607,35 @@ public class Client {
     public int getWriteBackWts() { return this.writeBackWts; }
     public Map<PublicKey, ClientAPI> getServerPublicKeys() { return this.serverPublicKeys; }
     public PublicKey getClientPublicKey() { return this.clientPublicKey; }
+    public long getClientId() { return this.clientId; }
     public Map<PublicKey, Acknowledge> getPostAcks() { return this.postAcks; }
     public Map<PublicKey, Acknowledge> getPostGeneralAcks() { return this.postGeneralAcks; }
     public Map<PublicKey, ReadView> getReadResponses() { return this.readResponses; }
     public Map<PublicKey, ReadView> getReadGeneralResponses() { return this.readGeneralResponses; }
     public Map<PublicKey, String> getLoginResponses() { return this.loginResponses; }
+    public Map<PublicKey, SecretKey> getSessionKeys() { return this.sessionKeys; }
+    public boolean isVerifiedRoot(long boardId, byte[] root) { return Arrays.equals(root, this.verifiedRoots.get(boardId)); }
+    public void setVerifiedRoot(long boardId, byte[] root) { this.verifiedRoots.put(boardId, root); }
     protected void incrementNumberOfAcks(){ this.numberOfAcks.incrementAndGet(); }
     protected void incrementNumberOfAborts(){ this.numberOfAborts.incrementAndGet(); }
     protected void setException(boolean exception){ this.exception = exception; }
 
-    private void login() throws InterruptedException {
+    // Requests to a server this client has no session with go out without an authenticator and are refused
+    private byte[] authenticate(PublicKey serverPublicKey, SignedPayload payload) throws NoSuchAlgorithmException, InvalidKeyException {
+
+        SecretKey sessionKey = this.sessionKeys.get(serverPublicKey);
+        return sessionKey == null ? null : SessionCrypto.mac(payload, sessionKey);
+    }
+
+    private void login() throws Exception {
 
         this.isLogging = true;
         this.numberOfAcks.set(0);
         this.numberOfAborts.set(0);
 
+        long nonce = this.loginNonce.incrementAndGet();
         for (Map.Entry<PublicKey, ClientAPI> entry : serverPublicKeys.entrySet()) {
-            AsyncLogin Login = new AsyncLogin(entry, this);
-            new Thread(Login).start();
-
+            startLogin(entry, nonce);
         }
 
         int seconds = 0;
@@ -660,4 +694,49 @@ public class Client {
         this.isLogging = false;
 
     }
+
+    // Logs in to the servers this client has no session with, without disturbing the sessions it has. The first
+    // login goes to every server, a quorum of them tells this client where its wts stands.
+    private void resumeSessions() throws Exception {
+
+        if (this.sessionKeys.isEmpty()) {
+            login();
+            return;
+        }
+
+        this.isLogging = true;
+        this.numberOfAcks.set(0);
+        this.numberOfAborts.set(0);
+
+        int missing = 0;
+        long nonce = this.loginNonce.incrementAndGet();
+        for (Map.Entry<PublicKey, ClientAPI> entry : serverPublicKeys.entrySet()) {
+            if (!this.sessionKeys.containsKey(entry.getKey())) {
+                startLogin(entry, nonce);
+                missing++;
+            }
+        }
+
+        //a server that is still down only costs this wait, the others keep the sessions they have
+        int seconds = 0;
+        while (this.numberOfAcks.get() + this.numberOfAborts.get() < missing && seconds <= 1000) {
+            Thread.sleep(10);
+            seconds++;
+        }
+
+        this.isLogging = false;
+
+    }
+
+    // A fresh session key for the server, readable only by it and signed by this client with the login's nonce
+    private void startLogin(Map.Entry<PublicKey, ClientAPI> entry, long nonce) throws Exception {
+
+        SecretKey sessionKey = SessionCrypto.generateKey();
+        byte[] wrappedSessionKey = SessionCrypto.wrapKey(sessionKey, entry.getKey());
+        byte[] signature = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.session(wrappedSessionKey, nonce), this.clientPrivateKey);
+
+        AsyncLogin Login = new AsyncLogin(entry, this, sessionKey, wrappedSessionKey, nonce, signature);
+        new Thread(Login).start();
+    }
+
 }
@@ -0,0 +1,55 @@
+package sec.project.library;
+
+import org.javatuples.Quartet;
+import org.javatuples.Quintet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Binary Merkle tree over the announcements of one read view. The server authenticates only its root, with the
+// reader's session key, so checking a response costs one MAC however many announcements it carries; the leaves
+// cover the references too, which the announcements' own signatures do not. A root the client has seen verified
+// stands for every author signature under it.
+public class AnnouncementTree {
+
+    public static byte[] root(List<? extends Quartet<Integer, String, byte[], ? extends List<Integer>>> announces) {
+
+        List<byte[]> leaves = new ArrayList<>();
+        for (Quartet<Integer, String, byte[], ? extends List<Integer>> announce : announces) {
+            leaves.add(new SignedPayload("announcement").add(announce.getValue0()).add(announce.getValue1())
+                    .add(announce.getValue2()).add(announce.getValue3()).digest());
+        }
+
+        return rootOf(leaves);
+    }
+
+    public static byte[] generalRoot(List<? extends Quintet<Integer, String, String, byte[], ? extends List<Integer>>> announces) {
+
+        List<byte[]> leaves = new ArrayList<>();
+        for (Quintet<Integer, String, String, byte[], ? extends List<Integer>> announce : announces) {
+            leaves.add(new SignedPayload("generalAnnouncement").add(announce.getValue0()).add(announce.getValue1())
+                    .add(announce.getValue2()).add(announce.getValue3()).add(announce.getValue4()).digest());
+        }
+
+        return rootOf(leaves);
+    }
+
+    // An odd node out is carried up as it is; the leaf count is hashed into the root so that cannot be abused
+    private static byte[] rootOf(List<byte[]> leaves) {
+
+        int count = leaves.size();
+        while (leaves.size() > 1) {
+            List<byte[]> parents = new ArrayList<>();
+            for (int i = 0; i < leaves.size(); i += 2) {
+                if (i + 1 == leaves.size()) {
+                    parents.add(leaves.get(i));
+                } else {
+                    parents.add(new SignedPayload("node").add(leaves.get(i)).add(leaves.get(i + 1)).digest());
+                }
+            }
+            leaves = parents;
+        }
+
+        return new SignedPayload("root").add(count).add(leaves.isEmpty() ? null : leaves.get(0)).digest();
+    }
+}
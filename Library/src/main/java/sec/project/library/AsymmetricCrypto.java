@@ -1,9 +1,6 @@
 package sec.project.library;
 
 import com.sun.org.apache.xerces.internal.impl.dv.util.Base64;
-import org.javatuples.Quartet;
-import org.javatuples.Quintet;
-import org.javatuples.Triplet;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -17,11 +14,8 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
-import java.util.ArrayList;
-import java.util.Arrays;
 
 import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 
@@ -33,10 +27,7 @@ public class AsymmetricCrypto {
             IllegalBlockSizeException, UnsupportedEncodingException {
 
         //System.out.println("\nDEBUG: Wrapping Signature:\n" + msg);
-        Cipher cipher = Cipher.getInstance("RSA");
-        cipher.init(Cipher.ENCRYPT_MODE, senderPrivateKey);
-        byte [] hash = digestMessage(msg);
-        return cipher.doFinal(hash);
+        return SignatureScheme.forKey(senderPrivateKey).sign(CryptoEngine.digest(msg), senderPrivateKey);
     }
 
     public static boolean validateDigitalSignature(byte [] receivedHash, PublicKey senderPublicKey, String msg) throws
@@ -44,21 +35,25 @@ public class AsymmetricCrypto {
             IllegalBlockSizeException, UnsupportedEncodingException {
 
         //System.out.println("\nDEBUG: Unwrapping Signature:\n" + msg);
-        Cipher cipher = Cipher.getInstance("RSA");
-        cipher.init(Cipher.DECRYPT_MODE, senderPublicKey);
-        byte [] localHash = digestMessage(msg);
-        byte [] receivedDecryptHash = cipher.doFinal(receivedHash);
-        //System.out.println("\nDEBUG: boolean - equal signatures?\n" + Arrays.equals(receivedDecryptHash,localHash));
+        return SignatureScheme.forKey(senderPublicKey).verify(receivedHash, senderPublicKey, CryptoEngine.digest(msg));
+    }
+
+    public static byte [] wrapDigitalSignature(SignedPayload payload, PrivateKey senderPrivateKey) throws
+            NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, BadPaddingException,
+            IllegalBlockSizeException {
 
-        return Arrays.equals(receivedDecryptHash,localHash);
+        return SignatureScheme.forKey(senderPrivateKey).sign(payload.digest(), senderPrivateKey);
     }
 
-    public static byte[] digestMessage(String msg) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+    public static boolean validateDigitalSignature(byte [] receivedHash, PublicKey senderPublicKey, SignedPayload payload) throws
+            NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, BadPaddingException,
+            IllegalBlockSizeException {
 
-        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-        byte[] messageBytes = msg.getBytes("UTF-8");
+        return SignatureScheme.forKey(senderPublicKey).verify(receivedHash, senderPublicKey, payload.digest());
+    }
 
-        return messageDigest.digest(messageBytes);
+    public static byte[] digestMessage(String msg) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+        return CryptoEngine.digest(msg);
     }
 
     @Deprecated
@@ -107,32 +102,4 @@ public class AsymmetricCrypto {
 
         return certificate.getPublicKey();
     }
-
-    public static String transformTripletToString(Triplet<Integer, String, byte[]> message) throws UnsupportedEncodingException {
-        return "" + message.getValue0() + message.getValue1() + new String(message.getValue2(), "UTF-8");
-    }
-
-    public static String transformQuartetToString(ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> quartets) throws UnsupportedEncodingException {
-
-        String result = "";
-
-        for (Quartet<Integer, String, byte[], ArrayList<Integer>> quartet : quartets){
-            result += "" + quartet.getValue0() + quartet.getValue1() + new String(quartet.getValue2(), "UTF-8") + quartet.getValue3();
-
-        }
-
-        return result;
-    }
-
-    public static String transformQuintetToString(ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> quintets) throws UnsupportedEncodingException {
-
-        String result = "";
-
-        for (Quintet<Integer, String, String, byte[], ArrayList<Integer>> quintet : quintets){
-            result += "" + quintet.getValue0() + quintet.getValue1() + quintet.getValue2() + new String(quintet.getValue3(), "UTF-8") + quintet.getValue4();
-
-        }
-
-        return result;
-    }
 }
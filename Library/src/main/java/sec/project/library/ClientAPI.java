@@ -1,23 +1,29 @@
 package sec.project.library;
 
-import org.javatuples.Quartet;
 import org.javatuples.Triplet;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
-import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
+// Posts, reads and the messages replicas exchange for each write name clients and replicas by their KeyRegistry
+// fingerprint; keys travel whole in register, login, the replica key exchange and state transfer
 public interface ClientAPI extends Remote {
 
     void register(PublicKey clientPublicKey, String clientId, byte [] signature) throws RemoteException;
-    Acknowledge post(PublicKey clientPublicKey, String message, int wts, byte [] signature, boolean isWriteBack) throws RemoteException;
-    Acknowledge postGeneral(PublicKey clientPublicKey, String message, int wts, byte[] signature, byte[] serverSignature, PublicKey serverPublicKey) throws RemoteException;
-    ReadView read(PublicKey toReadClientPublicKey, int number, int rid , byte[] signature, PublicKey clientPublicKey) throws RemoteException;
-    ReadView readGeneral(int number, int rid, byte[] signature, PublicKey clientPublicKey) throws RemoteException;
-    Acknowledge login(PublicKey receiverPublicKey) throws RemoteException;
-    void echo(PublicKey clientPublicKey, Triplet<Integer, String, byte[]> message, byte[] signature, PublicKey serverPublicKey) throws RemoteException;
-    void ready(PublicKey clientPublicKey, Triplet<Integer, String, byte[]> message, byte[] signature, PublicKey serverPublicKey) throws RemoteException;
-    void addCommitRequest(PublicKey clientPublicKey, Quartet<Integer, String, String , byte[]> valueQuartet, byte[] sSSignature, PublicKey serverPublicKey) throws RemoteException;
+    Acknowledge post(long clientId, String message, int wts, byte [] signature, boolean isWriteBack, long senderId) throws RemoteException;
+    Acknowledge postGeneral(long clientId, String message, int wts, byte[] signature, Map<Long, byte[]> serverMacs, long serverId) throws RemoteException;
+    ReadView read(long toReadClientId, int number, int rid , byte[] signature, long clientId) throws RemoteException;
+    ReadView readGeneral(int number, int rid, byte[] signature, long clientId) throws RemoteException;
+    Acknowledge login(PublicKey clientPublicKey, byte[] sessionKey, long nonce, byte[] signature) throws RemoteException;
+    void deliverBatch(List<ReplicaMessage> messages, byte[] mac, long serverId) throws RemoteException;
+    Triplet<Integer, String, byte[]> fetchValue(long clientId, int wts, byte[] digest, byte[] mac, long serverId) throws RemoteException;
+    ReplicaKey exchangeReplicaKey(ReplicaKey replicaKey, PublicKey serverPublicKey) throws RemoteException;
+    StateTransfer catchUp(Map<Long, Integer> clientWts, int generalWts, long nonce, byte[] mac, long serverId) throws RemoteException;
+    Map<PublicKey, byte[]> merkleRoots(long nonce, byte[] mac, long serverId) throws RemoteException;
+    ArrayList<byte[]> merkleDigests(PublicKey clientPublicKey, int level, ArrayList<Integer> nodes, long nonce, byte[] mac, long serverId) throws RemoteException;
+    StateTransfer fetchLeaves(PublicKey clientPublicKey, ArrayList<Integer> leaves, long nonce, byte[] mac, long serverId) throws RemoteException;
 }
\ No newline at end of file
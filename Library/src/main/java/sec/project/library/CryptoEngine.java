@@ -0,0 +1,86 @@
+package sec.project.library;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Signing and verification with per-thread ciphers and digests. Cipher.getInstance() and
+// MessageDigest.getInstance() search the providers on every call and neither object may be shared between
+// threads, so each thread keeps its own digest and one initialized cipher per key it has used recently.
+public class CryptoEngine {
+
+    private static final int CIPHERS_PER_THREAD = Integer.getInteger("dpas.crypto.ciphersPerThread", 64);
+
+    private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<>();
+    private static final ThreadLocal<Map<Key, Cipher>> SIGNERS = new ThreadLocal<>();
+    private static final ThreadLocal<Map<Key, Cipher>> VERIFIERS = new ThreadLocal<>();
+
+    public static byte[] signDigest(byte[] hash, PrivateKey senderPrivateKey) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+
+        return doFinal(SIGNERS, Cipher.ENCRYPT_MODE, senderPrivateKey, hash);
+    }
+
+    public static boolean verifyDigest(byte[] receivedHash, PublicKey senderPublicKey, byte[] localHash) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+
+        return Arrays.equals(doFinal(VERIFIERS, Cipher.DECRYPT_MODE, senderPublicKey, receivedHash), localHash);
+    }
+
+    public static byte[] digest(String msg) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+        return digest(msg.getBytes("UTF-8"));
+    }
+
+    public static byte[] digest(byte[] bytes) throws NoSuchAlgorithmException {
+
+        MessageDigest messageDigest = DIGESTS.get();
+        if (messageDigest == null) {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+            DIGESTS.set(messageDigest);
+        }
+
+        return messageDigest.digest(bytes);
+    }
+
+    // doFinal() leaves a cipher initialized with the same key and mode, so it is ready for the next call
+    private static byte[] doFinal(ThreadLocal<Map<Key, Cipher>> ciphers, int mode, Key key, byte[] input) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+
+        Map<Key, Cipher> cache = ciphers.get();
+        if (cache == null) {
+            cache = new LinkedHashMap<Key, Cipher>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Cipher> eldest) {
+                    return size() > CIPHERS_PER_THREAD;
+                }
+            };
+            ciphers.set(cache);
+        }
+
+        Cipher cipher = cache.get(key);
+        if (cipher == null) {
+            cipher = Cipher.getInstance("RSA");
+            cipher.init(mode, key);
+            cache.put(key, cipher);
+        }
+
+        try {
+            return cipher.doFinal(input);
+        } catch (BadPaddingException | IllegalBlockSizeException e) {
+            //do not trust the state of a cipher that failed halfway
+            cache.remove(key);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package sec.project.library;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+
+// A scheme backed by java.security.Signature, signing the payload digest as it is. Like the RSA ciphers in
+// CryptoEngine, each thread keeps its own Signature object, which only needs re-initializing with the key.
+public class JcaSignatureScheme extends SignatureScheme {
+
+    private final String name;
+    private final String algorithm;
+    private final ThreadLocal<Signature> signatures = new ThreadLocal<>();
+
+    public JcaSignatureScheme(String name, String algorithm) {
+        this.name = name;
+        this.algorithm = algorithm;
+    }
+
+    @Override
+    public String getName() { return this.name; }
+
+    @Override
+    public byte[] sign(byte[] digest, PrivateKey privateKey) throws NoSuchAlgorithmException, InvalidKeyException {
+
+        Signature signature = signature();
+        try {
+            signature.initSign(privateKey);
+            signature.update(digest);
+            return signature.sign();
+        } catch (SignatureException e) {
+            //only thrown by an uninitialized Signature
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // A malformed signature is just an invalid one
+    @Override
+    public boolean verify(byte[] received, PublicKey publicKey, byte[] digest) throws NoSuchAlgorithmException, InvalidKeyException {
+
+        Signature signature = signature();
+        try {
+            signature.initVerify(publicKey);
+            signature.update(digest);
+            return signature.verify(received);
+        } catch (SignatureException e) {
+            return false;
+        }
+    }
+
+    private Signature signature() throws NoSuchAlgorithmException {
+
+        Signature signature = this.signatures.get();
+        if (signature == null) {
+            signature = Signature.getInstance(this.algorithm);
+            this.signatures.set(signature);
+        }
+        return signature;
+    }
+}
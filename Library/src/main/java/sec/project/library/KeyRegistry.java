@@ -0,0 +1,60 @@
+package sec.project.library;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Compact ids for public keys. A key only travels whole where it is made known: registration, login and the
+// replica key exchange. Everything after names it by its fingerprint, the first 8 bytes of the SHA-256 of its
+// encoding, and is looked up by that long instead of by the key, whose equals and hashCode go through its
+// encoding. A registry keeps what each id stands for and refuses a second key with an id already taken.
+public class KeyRegistry<V> {
+
+    //never a fingerprint, stands for no key at all
+    public static final long NONE = 0;
+
+    private ConcurrentMap<Long, PublicKey> keys;
+    private ConcurrentMap<Long, V> values;
+
+    public KeyRegistry() {
+        this.keys = new ConcurrentHashMap<>();
+        this.values = new ConcurrentHashMap<>();
+    }
+
+    public static long fingerprint(PublicKey key) {
+        try {
+            long fingerprint = ByteBuffer.wrap(CryptoEngine.digest(key.getEncoded())).getLong();
+            return fingerprint == NONE ? 1 : fingerprint;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Registering a key again replaces what it stands for
+    public long register(PublicKey key, V value) throws InvalidKeyException {
+        long id = fingerprint(key);
+        PublicKey known = this.keys.putIfAbsent(id, key);
+        if (known != null && !known.equals(key)) {
+            throw new InvalidKeyException("Another key is already registered under fingerprint " + Long.toHexString(id));
+        }
+        this.values.put(id, value);
+        return id;
+    }
+
+    public V get(long id) { return this.values.get(id); }
+
+    public PublicKey getKey(long id) { return this.keys.get(id); }
+
+    public boolean contains(long id) { return this.values.containsKey(id); }
+
+    public int size() { return this.values.size(); }
+
+    public Collection<V> values() { return this.values.values(); }
+
+    public Map<Long, V> asMap() { return this.values; }
+}
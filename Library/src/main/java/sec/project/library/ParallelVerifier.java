@@ -0,0 +1,89 @@
+package sec.project.library;
+
+import org.javatuples.Triplet;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Checks the author signatures of a whole read view at once. Announcements that appear more than once are checked
+// once, the rest are split across a fork-join pool shared by every read of the process (dpas.verify.parallelism
+// threads, one per core by default), and each check goes through the VerificationCache, so an announcement already
+// verified in an earlier read, or right now for another server's answer, is not verified again.
+public class ParallelVerifier {
+
+    private static final int PARALLELISM = Integer.getInteger("dpas.verify.parallelism", Runtime.getRuntime().availableProcessors());
+
+    //below this many signatures a task checks them itself instead of splitting
+    private static final int THRESHOLD = 8;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, PARALLELISM));
+
+    // Each check is (signature, author, signed payload); true only if every signature is valid
+    public static boolean validateAll(List<Triplet<byte[], PublicKey, SignedPayload>> checks) throws NoSuchAlgorithmException {
+
+        List<Triplet<byte[], PublicKey, SignedPayload>> unique = new ArrayList<>();
+        Set<ByteBuffer> seen = new HashSet<>();
+        for (Triplet<byte[], PublicKey, SignedPayload> check : checks) {
+            ByteBuffer key = ByteBuffer.allocate(96);
+            key.put(CryptoEngine.digest(check.getValue1().getEncoded()));
+            key.put(CryptoEngine.digest(check.getValue0()));
+            key.put(check.getValue2().digest());
+            key.flip();
+            if (seen.add(key)) {
+                unique.add(check);
+            }
+        }
+
+        if (unique.isEmpty()) {
+            return true;
+        }
+        return POOL.invoke(new Verification(unique, 0, unique.size()));
+    }
+
+    private static class Verification extends RecursiveTask<Boolean> {
+
+        private static final long serialVersionUID = 994596409396955978L;
+
+        private List<Triplet<byte[], PublicKey, SignedPayload>> checks;
+        private int from;
+        private int to;
+
+        private Verification(List<Triplet<byte[], PublicKey, SignedPayload>> checks, int from, int to) {
+            this.checks = checks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Boolean compute() {
+
+            if (this.to - this.from <= THRESHOLD) {
+                for (int i = this.from; i < this.to; i++) {
+                    Triplet<byte[], PublicKey, SignedPayload> check = this.checks.get(i);
+                    try {
+                        if (!VerificationCache.validateDigitalSignature(check.getValue0(), check.getValue1(), check.getValue2())) {
+                            return false;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            int middle = (this.from + this.to) >>> 1;
+            Verification left = new Verification(this.checks, this.from, middle);
+            left.fork();
+            boolean right = new Verification(this.checks, middle, this.to).compute();
+            return left.join() && right;
+        }
+    }
+}
@@ -7,23 +7,30 @@ import java.io.Serializable;
 import java.util.ArrayList;
 
 public class ReadView implements Serializable {
+
+    private static final long serialVersionUID = 3570231339673416594L;
+
     private ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> announces;
     private ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> announcesGeneral;
     private int rid;
+    private byte[] root;
     private byte[] signature;
 
-    public ReadView(ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> announces, int rid, byte[] signature){
+    public ReadView(ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> announces, int rid, byte[] root, byte[] signature){
         this.announces = announces;
         this.rid = rid;
+        this.root = root;
         this.signature = signature;
     }
 
-    public ReadView(int rid, byte[] signature, ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> announcesGeneral){
+    public ReadView(int rid, byte[] root, byte[] signature, ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> announcesGeneral){
         this.announcesGeneral = announcesGeneral;
         this.rid = rid;
+        this.root = root;
         this.signature = signature;
     }
 
+    public byte[] getRoot() { return root; }
     public byte[] getSignature() { return signature; }
     public ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> getAnnounces() { return this.announces; }
     public ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> getAnnouncesGeneral() { return this.announcesGeneral; }
@@ -0,0 +1,25 @@
+package sec.project.library;
+
+import java.io.Serializable;
+
+// A replica's MAC key for its messages to one peer, wrapped with that peer's public key and signed by the replica.
+// The epoch only grows from one offer to the next, so a peer can tell a replayed offer from a newer one.
+public class ReplicaKey implements Serializable {
+
+    private static final long serialVersionUID = -8686675576580153138L;
+
+    private byte[] wrappedKey;
+    private long epoch;
+    private byte[] signature;
+
+    public ReplicaKey(byte[] wrappedKey, long epoch, byte[] signature){
+        this.wrappedKey = wrappedKey;
+        this.epoch = epoch;
+        this.signature = signature;
+    }
+
+    public byte[] getWrappedKey() { return this.wrappedKey; }
+    public long getEpoch() { return this.epoch; }
+    public byte[] getSignature() { return this.signature; }
+
+}
@@ -0,0 +1,68 @@
+package sec.project.library;
+
+import org.javatuples.Quartet;
+
+import java.io.Serializable;
+
+// An ECHO or READY of a board write, or a commit vote on a general board write, as one replica sends it to another.
+// ECHO and READY name the value of the write by its digest (SignedPayload.announcement), a replica that never got
+// the value itself fetches it from a peer. Messages to a peer travel in batches that carry a single MAC over all of
+// them, see SignedPayload.batch.
+public class ReplicaMessage implements Serializable {
+
+    private static final long serialVersionUID = 1193471933576188774L;
+
+    public static final byte ECHO = 0;
+    public static final byte READY = 1;
+    public static final byte COMMIT = 2;
+
+    private byte type;
+    private long clientId;
+    private int wts;
+    private byte[] digest;
+    private Quartet<Integer, String, String, byte[]> commit;
+
+    private ReplicaMessage(byte type, long clientId, int wts, byte[] digest, Quartet<Integer, String, String, byte[]> commit){
+        this.type = type;
+        this.clientId = clientId;
+        this.wts = wts;
+        this.digest = digest;
+        this.commit = commit;
+    }
+
+    public static ReplicaMessage echo(long clientId, int wts, byte[] digest){
+        return new ReplicaMessage(ECHO, clientId, wts, digest, null);
+    }
+
+    public static ReplicaMessage ready(long clientId, int wts, byte[] digest){
+        return new ReplicaMessage(READY, clientId, wts, digest, null);
+    }
+
+    public static ReplicaMessage commit(long clientId, Quartet<Integer, String, String, byte[]> commit){
+        return new ReplicaMessage(COMMIT, clientId, commit.getValue0(), null, commit);
+    }
+
+    // A COMMIT without a value is a vote to abort the client's write wts
+    public static ReplicaMessage abort(long clientId, int wts){
+        return new ReplicaMessage(COMMIT, clientId, wts, null, null);
+    }
+
+    public SignedPayload payload(){
+        switch (this.type) {
+            case ECHO:
+                return SignedPayload.echo(this.clientId, this.wts, this.digest);
+            case READY:
+                return SignedPayload.ready(this.clientId, this.wts, this.digest);
+            default:
+                return this.commit == null ? SignedPayload.abort(this.clientId, this.wts) : SignedPayload.commit(this.clientId,
+                        this.commit.getValue0(), this.commit.getValue1(), this.commit.getValue2(), this.commit.getValue3());
+        }
+    }
+
+    public byte getType() { return this.type; }
+    public long getClientId() { return this.clientId; }
+    public int getWts() { return this.wts; }
+    public byte[] getDigest() { return this.digest; }
+    public Quartet<Integer, String, String, byte[]> getCommit() { return this.commit; }
+
+}
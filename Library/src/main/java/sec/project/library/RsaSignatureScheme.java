@@ -0,0 +1,30 @@
+package sec.project.library;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+// The original scheme: the digest encrypted with the private key, so existing signatures keep verifying
+public class RsaSignatureScheme extends SignatureScheme {
+
+    @Override
+    public String getName() { return "RSA"; }
+
+    @Override
+    public byte[] sign(byte[] digest, PrivateKey privateKey) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+
+        return CryptoEngine.signDigest(digest, privateKey);
+    }
+
+    @Override
+    public boolean verify(byte[] signature, PublicKey publicKey, byte[] digest) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+
+        return CryptoEngine.verifyDigest(signature, publicKey, digest);
+    }
+}
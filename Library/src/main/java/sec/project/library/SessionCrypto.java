@@ -0,0 +1,68 @@
+package sec.project.library;
+
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+// Symmetric session keys agreed at login. The client picks a fresh HMAC key for each server, wraps it with that
+// server's public key and signs the wrapped key, so only that server learns it and only from that client. After
+// that, requests and answers between the two carry an HMAC instead of an RSA signature; announcements stay
+// signed by their author, since every reader has to be able to check those.
+public class SessionCrypto {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final ThreadLocal<Mac> MACS = new ThreadLocal<>();
+
+    public static SecretKey generateKey() throws NoSuchAlgorithmException {
+        return KeyGenerator.getInstance(ALGORITHM).generateKey();
+    }
+
+    public static byte[] wrapKey(SecretKey sessionKey, PublicKey serverPublicKey) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException {
+
+        //Ed25519 and ECDSA keys only sign, whatever scheme the clients use the servers keep RSA keys
+        if (!"RSA".equals(serverPublicKey.getAlgorithm())) {
+            throw new InvalidKeyException("Session keys can only be wrapped with an RSA key, not " + serverPublicKey.getAlgorithm());
+        }
+
+        Cipher cipher = Cipher.getInstance("RSA");
+        cipher.init(Cipher.WRAP_MODE, serverPublicKey);
+        return cipher.wrap(sessionKey);
+    }
+
+    public static SecretKey unwrapKey(byte[] wrappedKey, PrivateKey serverPrivateKey) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException {
+
+        Cipher cipher = Cipher.getInstance("RSA");
+        cipher.init(Cipher.UNWRAP_MODE, serverPrivateKey);
+        return (SecretKey) cipher.unwrap(wrappedKey, ALGORITHM, Cipher.SECRET_KEY);
+    }
+
+    public static byte[] mac(SignedPayload payload, SecretKey sessionKey) throws NoSuchAlgorithmException, InvalidKeyException {
+
+        Mac mac = MACS.get();
+        if (mac == null) {
+            mac = Mac.getInstance(ALGORITHM);
+            MACS.set(mac);
+        }
+
+        mac.init(sessionKey);
+        return mac.doFinal(payload.digest());
+    }
+
+    // No session yet, or a missing authenticator, is never valid
+    public static boolean validateMac(byte[] receivedMac, SignedPayload payload, SecretKey sessionKey) throws
+            NoSuchAlgorithmException, InvalidKeyException {
+
+        return receivedMac != null && sessionKey != null && MessageDigest.isEqual(receivedMac, mac(payload, sessionKey));
+    }
+}
@@ -0,0 +1,43 @@
+package sec.project.library;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+// How a digest is signed and checked, picked by the algorithm of the key at hand. A deployment chooses its
+// scheme through the keys it installs under data/keys: RSA keys sign as before, EC keys with ECDSA and Ed25519
+// keys with Ed25519 (JDK 15 or later), whose 64 byte signatures make every stored announcement smaller.
+public abstract class SignatureScheme {
+
+    public static final SignatureScheme RSA = new RsaSignatureScheme();
+    public static final SignatureScheme ECDSA = new JcaSignatureScheme("ECDSA", "NONEwithECDSA");
+    public static final SignatureScheme ED25519 = new JcaSignatureScheme("Ed25519", "Ed25519");
+
+    public static SignatureScheme forKey(Key key) throws NoSuchAlgorithmException {
+
+        switch (key.getAlgorithm()) {
+            case "RSA":
+                return RSA;
+            case "EC":
+                return ECDSA;
+            case "Ed25519":
+            case "EdDSA":
+                return ED25519;
+            default:
+                throw new NoSuchAlgorithmException("No signature scheme for " + key.getAlgorithm() + " keys");
+        }
+    }
+
+    public abstract String getName();
+
+    public abstract byte[] sign(byte[] digest, PrivateKey privateKey) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException, BadPaddingException, IllegalBlockSizeException;
+
+    public abstract boolean verify(byte[] signature, PublicKey publicKey, byte[] digest) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException;
+}
@@ -0,0 +1,225 @@
+package sec.project.library;
+
+import org.javatuples.Triplet;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Canonical encoding of everything that gets signed. Each field goes straight into a SHA-256 digest, tagged
+// with its type and prefixed with its length, so two different payloads never encode alike and a read view
+// of any size is hashed without being concatenated into a String first. Every payload starts
+// with the name of the message it belongs to, so a signature made for one message is useless for another.
+public class SignedPayload {
+
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte STRING = 2;
+    private static final byte BYTES = 3;
+    private static final byte KEY = 4;
+    private static final byte LIST = 5;
+    private static final byte LONG = 6;
+
+    private static final MessageDigest PROTOTYPE;
+
+    static {
+        try {
+            PROTOTYPE = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private MessageDigest messageDigest;
+    private byte[] scratch;
+    private byte[] digest;
+
+    public SignedPayload(String type) {
+        try {
+            this.messageDigest = (MessageDigest) PROTOTYPE.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        this.scratch = new byte[5];
+        add(type);
+    }
+
+    public static SignedPayload register(String clientNumber) {
+        return new SignedPayload("register").add(clientNumber);
+    }
+
+    // The client's session key for one server, as wrapped for that server, and the login it belongs to
+    public static SignedPayload session(byte[] wrappedSessionKey, long nonce) {
+        return new SignedPayload("session").add(wrappedSessionKey).add(nonce);
+    }
+
+    // A replica's MAC key for one peer, as wrapped for that peer
+    public static SignedPayload replicaKey(PublicKey receiverPublicKey, byte[] wrappedKey, long epoch) {
+        return new SignedPayload("replicaKey").add(receiverPublicKey).add(wrappedKey).add(epoch);
+    }
+
+    public static SignedPayload login(String message) {
+        return new SignedPayload("login").add(message);
+    }
+
+    public static SignedPayload post(String message, int wts) {
+        return new SignedPayload("post").add(message).add(wts);
+    }
+
+    public static SignedPayload postGeneral(String message, int wts, String clientNumber) {
+        return new SignedPayload("postGeneral").add(message).add(wts).add(clientNumber);
+    }
+
+    public static SignedPayload acknowledge(String ack, int wts) {
+        return new SignedPayload("acknowledge").add(ack).add(wts);
+    }
+
+    public static SignedPayload read(long toReadClientId, int number, int rid) {
+        return new SignedPayload("read").add(toReadClientId).add(number).add(rid);
+    }
+
+    public static SignedPayload readGeneral(int number, int rid) {
+        return new SignedPayload("readGeneral").add(number).add(rid);
+    }
+
+    public static SignedPayload readView(long toReadClientId, byte[] root, int rid) {
+        return new SignedPayload("readView").add(toReadClientId).add(root).add(rid);
+    }
+
+    public static SignedPayload readGeneralView(byte[] root, int rid) {
+        return new SignedPayload("readGeneralView").add(root).add(rid);
+    }
+
+    // The body of a board write, which ECHO and READY name only by the digest of this
+    public static SignedPayload announcement(Triplet<Integer, String, byte[]> value) {
+        return new SignedPayload("announcement").add(value.getValue0()).add(value.getValue1()).add(value.getValue2());
+    }
+
+    public static SignedPayload echo(long clientId, int wts, byte[] digest) {
+        return new SignedPayload("echo").add(clientId).add(wts).add(digest);
+    }
+
+    public static SignedPayload ready(long clientId, int wts, byte[] digest) {
+        return new SignedPayload("ready").add(clientId).add(wts).add(digest);
+    }
+
+    public static SignedPayload fetchValue(long clientId, int wts, byte[] digest) {
+        return new SignedPayload("fetchValue").add(clientId).add(wts).add(digest);
+    }
+
+    // A replica asking a peer for what it delivered after the given wts of each board, nonce from ReplicaKeys.nonce()
+    public static SignedPayload catchUp(Map<Long, Integer> clientWts, int generalWts, long nonce) {
+        SignedPayload payload = new SignedPayload("catchUp").add(generalWts).add(nonce).add(clientWts.size());
+        for (Map.Entry<Long, Integer> client : new TreeMap<>(clientWts).entrySet()) {
+            payload.add(client.getKey()).add(client.getValue());
+        }
+        return payload;
+    }
+
+    public static SignedPayload merkleRoots(long nonce) {
+        return new SignedPayload("merkleRoots").add(nonce);
+    }
+
+    // A null client key stands for the general board
+    public static SignedPayload merkleDigests(PublicKey clientPublicKey, int level, List<Integer> nodes, long nonce) {
+        return new SignedPayload("merkleDigests").add(clientPublicKey).add(level).add(nodes).add(nonce);
+    }
+
+    public static SignedPayload fetchLeaves(PublicKey clientPublicKey, List<Integer> leaves, long nonce) {
+        return new SignedPayload("fetchLeaves").add(clientPublicKey).add(leaves).add(nonce);
+    }
+
+    // What a replica vouches for when it forwards a general board write to the others
+    public static SignedPayload forward(String message, int wts, String clientNumber, byte[] signature) {
+        return new SignedPayload("forward").add(message).add(wts).add(clientNumber).add(signature);
+    }
+
+    // A vote on the general board write of the client, whose id names the key its signature is checked with
+    public static SignedPayload commit(long clientId, int wts, String message, String clientNumber, byte[] signature) {
+        return new SignedPayload("commit").add(clientId).add(wts).add(message).add(clientNumber).add(signature);
+    }
+
+    public static SignedPayload abort(long clientId, int wts) {
+        return new SignedPayload("abort").add(clientId).add(wts);
+    }
+
+    // Messages from one replica to another, authenticated together by the digests of what each of them would be alone
+    public static SignedPayload batch(List<ReplicaMessage> messages) {
+        SignedPayload payload = new SignedPayload("batch").add(messages.size());
+        for (ReplicaMessage message : messages) {
+            payload.add(message.payload().digest());
+        }
+        return payload;
+    }
+
+    public SignedPayload add(int value) {
+        this.scratch[0] = INT;
+        this.scratch[1] = (byte) (value >>> 24);
+        this.scratch[2] = (byte) (value >>> 16);
+        this.scratch[3] = (byte) (value >>> 8);
+        this.scratch[4] = (byte) value;
+        this.messageDigest.update(this.scratch, 0, 5);
+        return this;
+    }
+
+    // Key ids, see KeyRegistry
+    public SignedPayload add(long value) {
+        this.messageDigest.update(LONG);
+        add((int) (value >>> 32));
+        add((int) value);
+        return this;
+    }
+
+    public SignedPayload add(String value) {
+        return value == null ? addNull() : addBytes(STRING, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public SignedPayload add(byte[] value) {
+        return value == null ? addNull() : addBytes(BYTES, value);
+    }
+
+    public SignedPayload add(PublicKey value) {
+        return value == null ? addNull() : addBytes(KEY, value.getEncoded());
+    }
+
+    public SignedPayload add(List<Integer> values) {
+        if (values == null) {
+            return addNull();
+        }
+
+        addLength(LIST, values.size());
+        for (Integer value : values) {
+            add(value);
+        }
+        return this;
+    }
+
+    // Nothing can be added once the digest is taken
+    public byte[] digest() {
+        if (this.digest == null) {
+            this.digest = this.messageDigest.digest();
+            this.messageDigest = null;
+        }
+        return this.digest.clone();
+    }
+
+    private SignedPayload addNull() {
+        this.messageDigest.update(NULL);
+        return this;
+    }
+
+    private SignedPayload addBytes(byte type, byte[] value) {
+        addLength(type, value.length);
+        this.messageDigest.update(value);
+        return this;
+    }
+
+    private void addLength(byte type, int length) {
+        this.messageDigest.update(type);
+        add(length);
+    }
+}
@@ -0,0 +1,31 @@
+package sec.project.library;
+
+import org.javatuples.Quartet;
+import org.javatuples.Quintet;
+import java.io.Serializable;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Map;
+
+// What a replica hands to a peer catching up after downtime: every announcement above the peer's wts on
+// each board, still carrying the signatures of the clients who posted them
+public class StateTransfer implements Serializable {
+
+    private static final long serialVersionUID = 2212077385008113894L;
+
+    private Map<PublicKey, String> clientNumbers;
+    private Map<PublicKey, ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>>> announces;
+    private ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> announcesGeneral;
+
+    public StateTransfer(Map<PublicKey, String> clientNumbers, Map<PublicKey, ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>>> announces,
+                         ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> announcesGeneral){
+        this.clientNumbers = clientNumbers;
+        this.announces = announces;
+        this.announcesGeneral = announcesGeneral;
+    }
+
+    public Map<PublicKey, String> getClientNumbers() { return this.clientNumbers; }
+    public Map<PublicKey, ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>>> getAnnounces() { return this.announces; }
+    public ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> getAnnouncesGeneral() { return this.announcesGeneral; }
+
+}
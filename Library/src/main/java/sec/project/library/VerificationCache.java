@@ -0,0 +1,120 @@
+package sec.project.library;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Signatures this process has already checked. On a replica the same client signature comes back in the write,
+// in every forwarded server ack and in every commit request; on a client every server returns the same
+// announcements on every read. Each distinct (key, message, signature) is verified once and then remembered,
+// least recently used first out. Only valid signatures are remembered: a bad one costs a full verification
+// every time, as before. A signature that is being checked when another thread asks for it (the same announcement
+// in the answers of two servers, read at once) is waited for instead of checked twice.
+public class VerificationCache {
+
+    private static final int CACHE_SIZE = Integer.getInteger("dpas.verify.cacheSize", 4096);
+
+    private static final Map<ByteBuffer, Boolean> VERIFIED = new LinkedHashMap<ByteBuffer, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static final ConcurrentMap<ByteBuffer, PendingCheck> PENDING = new ConcurrentHashMap<>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    public static boolean validateDigitalSignature(byte[] signature, PublicKey senderPublicKey, SignedPayload payload) throws
+            NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, BadPaddingException,
+            IllegalBlockSizeException {
+
+        ByteBuffer key = ByteBuffer.allocate(96);
+        key.put(CryptoEngine.digest(senderPublicKey.getEncoded()));
+        key.put(payload.digest());
+        key.put(CryptoEngine.digest(signature));
+        key.flip();
+
+        synchronized (VERIFIED) {
+            if (VERIFIED.get(key) != null) {
+                hits.incrementAndGet();
+                return true;
+            }
+        }
+
+        PendingCheck check = new PendingCheck();
+        PendingCheck pending = PENDING.putIfAbsent(key, check);
+        if (pending != null && pending.await()) {
+            hits.incrementAndGet();
+            return true;
+        }
+
+        misses.incrementAndGet();
+        try {
+            if (!AsymmetricCrypto.validateDigitalSignature(signature, senderPublicKey, payload)) {
+                return false;
+            }
+
+            synchronized (VERIFIED) {
+                VERIFIED.put(key, Boolean.TRUE);
+            }
+            check.valid = true;
+            return true;
+        } finally {
+            if (pending == null) {
+                PENDING.remove(key, check);
+                check.done.countDown();
+            }
+        }
+    }
+
+    public static long getHits() { return hits.get(); }
+
+    public static long getMisses() { return misses.get(); }
+
+    public static double getHitRate() {
+        long total = getHits() + getMisses();
+        return total == 0 ? 0 : (double) getHits() / total;
+    }
+
+    public static int size() {
+        synchronized (VERIFIED) {
+            return VERIFIED.size();
+        }
+    }
+
+    public static String getStatistics() {
+        return "cached: " + size() + ", hits: " + getHits() + ", misses: " + getMisses()
+                + ", hit rate: " + String.format("%.2f", getHitRate() * 100) + "%"
+                + " (cache size " + CACHE_SIZE + ")";
+    }
+
+    // Whoever checks a signature first, threads asking for the same one meanwhile wait for its outcome
+    private static class PendingCheck {
+
+        private CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean valid;
+
+        // A signature found bad, or a check that failed, is checked again by each waiting thread
+        private boolean await() {
+            try {
+                this.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return this.valid;
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package sec.project.library;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.crypto.BadPaddingException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
 import java.security.PrivateKey;
 
 /**
@@ -25,4 +29,29 @@ public class AsymmetricCryptoTest
     {
         assertTrue( true );
     }
+
+    @Test
+    public void signAndValidateWithReusedCiphersTest() throws Exception
+    {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair first = generator.generateKeyPair();
+        KeyPair second = generator.generateKeyPair();
+
+        for (int i = 0; i < 3; i++) {
+            byte[] signature = AsymmetricCrypto.wrapDigitalSignature("ola" + i, first.getPrivate());
+            assertTrue(AsymmetricCrypto.validateDigitalSignature(signature, first.getPublic(), "ola" + i));
+            assertFalse(AsymmetricCrypto.validateDigitalSignature(signature, first.getPublic(), "adeus" + i));
+
+            try {
+                assertFalse(AsymmetricCrypto.validateDigitalSignature(signature, second.getPublic(), "ola" + i));
+            } catch (BadPaddingException e) {
+                //a signature from another key usually fails to decrypt at all
+            }
+        }
+
+        //a cipher that failed is not reused
+        byte[] signature = AsymmetricCrypto.wrapDigitalSignature("ola", second.getPrivate());
+        assertTrue(AsymmetricCrypto.validateDigitalSignature(signature, second.getPublic(), "ola"));
+    }
 }
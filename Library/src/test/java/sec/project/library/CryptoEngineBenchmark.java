@@ -0,0 +1,99 @@
+package sec.project.library;
+
+import javax.crypto.Cipher;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares signing and verifying a SignedPayload digest through CryptoEngine against the previous
+ * AsymmetricCrypto code, which looked up a new Cipher and MessageDigest on every call. Both do the same
+ * RSA work per operation, only the previous code hashes the plain message. Not a unit test, run it by hand:
+ *
+ *   java -cp ... sec.project.library.CryptoEngineBenchmark [operations per thread] [threads]
+ */
+public class CryptoEngineBenchmark
+{
+    public static void main(String[] args) throws Exception {
+
+        final int operations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        final KeyPair keyPair = generator.generateKeyPair();
+        final String message = "announcement number 42 with a typical amount of text in it| 1 2 3" + 42;
+        final byte[] signature = CryptoEngine.signDigest(SignedPayload.post(message, 1).digest(), keyPair.getPrivate());
+
+        //warm up both paths
+        run(false, false, keyPair, message, signature, operations, 1);
+        run(true, false, keyPair, message, signature, operations, 1);
+
+        System.out.println("operation | threads | implementation | ops/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (boolean verify : new boolean[] {false, true}) {
+                String operation = verify ? "verify" : "sign";
+                System.out.println(operation + " | " + threads + " | getInstance per call | "
+                        + run(false, verify, keyPair, message, signature, operations, threads));
+                System.out.println(operation + " | " + threads + " | CryptoEngine | "
+                        + run(true, verify, keyPair, message, signature, operations, threads));
+            }
+        }
+    }
+
+    private static long run(final boolean engine, final boolean verify, final KeyPair keyPair, final String message,
+                            final byte[] signature, final int operations, int threads) throws Exception {
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < operations; j++) {
+                            if (engine && verify) {
+                                CryptoEngine.verifyDigest(signature, keyPair.getPublic(), SignedPayload.post(message, 1).digest());
+                            } else if (engine) {
+                                CryptoEngine.signDigest(SignedPayload.post(message, 1).digest(), keyPair.getPrivate());
+                            } else if (verify) {
+                                previousVerify(signature, keyPair.getPublic(), message);
+                            } else {
+                                previousSign(message, keyPair.getPrivate());
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        return (long) operations * threads * 1000000000L / (System.nanoTime() - start);
+    }
+
+    private static byte[] previousSign(String msg, PrivateKey senderPrivateKey) throws Exception {
+        Cipher cipher = Cipher.getInstance("RSA");
+        cipher.init(Cipher.ENCRYPT_MODE, senderPrivateKey);
+        return cipher.doFinal(MessageDigest.getInstance("SHA-256").digest(msg.getBytes("UTF-8")));
+    }
+
+    private static boolean previousVerify(byte[] receivedHash, PublicKey senderPublicKey, String msg) throws Exception {
+        Cipher cipher = Cipher.getInstance("RSA");
+        cipher.init(Cipher.DECRYPT_MODE, senderPublicKey);
+        byte[] localHash = MessageDigest.getInstance("SHA-256").digest(msg.getBytes("UTF-8"));
+        return Arrays.equals(cipher.doFinal(receivedHash), localHash);
+    }
+}
@@ -0,0 +1,37 @@
+package sec.project.library;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+public class KeyRegistryTest
+{
+    @Test
+    public void registeredKeyIsFoundByFingerprintTest() throws Exception {
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair first = generator.generateKeyPair();
+        KeyPair second = generator.generateKeyPair();
+
+        KeyRegistry<String> registry = new KeyRegistry<>();
+        long id = registry.register(first.getPublic(), "client1");
+
+        assertEquals(KeyRegistry.fingerprint(first.getPublic()), id);
+        assertNotEquals(KeyRegistry.fingerprint(second.getPublic()), id);
+        assertEquals("client1", registry.get(id));
+        assertEquals(first.getPublic(), registry.getKey(id));
+        assertNull(registry.get(KeyRegistry.fingerprint(second.getPublic())));
+        assertNull(registry.get(KeyRegistry.NONE));
+
+        //the same key again keeps its id
+        assertEquals(id, registry.register(first.getPublic(), "client1 again"));
+        assertEquals("client1 again", registry.get(id));
+        assertEquals(1, registry.size());
+    }
+}
@@ -0,0 +1,97 @@
+package sec.project.library;
+
+import org.javatuples.Triplet;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the announcements of one read as a client does, with every server answering the same view at once:
+ * first with a plain signature check per announcement per answer, as the reads used to, then through the
+ * ParallelVerifier with a cold and a warm verification cache. Not a unit test, run it by hand:
+ *
+ *   java -cp ... sec.project.library.ReadVerificationBenchmark [announcements] [servers]
+ */
+public class ReadVerificationBenchmark
+{
+    public static void main(String[] args) throws Exception {
+
+        int announcements = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int servers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+
+        List<byte[]> signatures = new ArrayList<>();
+        for (int wts = 1; wts <= announcements; wts++) {
+            signatures.add(AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post("announcement " + wts + "| ", wts), keyPair.getPrivate()));
+        }
+
+        //warm up with other announcements, so the cache stays cold for the ones measured
+        List<byte[]> warmUp = new ArrayList<>();
+        for (int wts = 1; wts <= 50; wts++) {
+            warmUp.add(AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post("warm up " + wts + "| ", wts), keyPair.getPrivate()));
+        }
+        for (int i = 0; i < 20; i++) {
+            read(true, keyPair.getPublic(), warmUp, "warm up ", servers);
+            read(false, keyPair.getPublic(), warmUp, "warm up ", servers);
+        }
+
+        System.out.println("announcements | servers | cores | verification | ms");
+        for (String verification : new String[] {"serial", "parallel, cold cache", "parallel, warm cache"}) {
+            long start = System.nanoTime();
+            int failed = read(verification.equals("serial"), keyPair.getPublic(), signatures, "announcement ", servers);
+            long elapsed = (System.nanoTime() - start) / 1000000;
+
+            System.out.println(announcements + " | " + servers + " | " + Runtime.getRuntime().availableProcessors() + " | "
+                    + verification + " | " + elapsed + (failed == 0 ? "" : " (" + failed + " answers rejected)"));
+        }
+
+        System.exit(0);
+    }
+
+    // One thread per server answer, as the client's AsyncRead threads
+    private static int read(final boolean serial, final PublicKey publicKey, final List<byte[]> signatures, final String text, int servers) throws Exception {
+
+        final AtomicInteger failed = new AtomicInteger();
+        Thread[] threads = new Thread[servers];
+        for (int i = 0; i < servers; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        boolean valid = true;
+                        List<Triplet<byte[], PublicKey, SignedPayload>> checks = new ArrayList<>();
+                        for (int wts = 1; wts <= signatures.size(); wts++) {
+                            SignedPayload payload = SignedPayload.post(text + wts + "| ", wts);
+                            if (serial) {
+                                valid &= AsymmetricCrypto.validateDigitalSignature(signatures.get(wts - 1), publicKey, payload);
+                            } else {
+                                checks.add(new Triplet<>(signatures.get(wts - 1), publicKey, payload));
+                            }
+                        }
+                        if (!serial) {
+                            valid = ParallelVerifier.validateAll(checks);
+                        }
+                        if (!valid) {
+                            failed.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return failed.get();
+    }
+}
@@ -0,0 +1,86 @@
+package sec.project.library;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares signing and verifying a payload digest with every SignatureScheme, and the size of the signatures
+ * each one adds to a stored announcement and to every announcement in a read view. Not a unit test, run it
+ * by hand (Ed25519 needs JDK 15 or later):
+ *
+ *   java -cp ... sec.project.library.SignatureSchemeBenchmark [operations per thread] [threads]
+ */
+public class SignatureSchemeBenchmark
+{
+    public static void main(String[] args) throws Exception {
+
+        final int operations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        KeyPairGenerator rsa = KeyPairGenerator.getInstance("RSA");
+        rsa.initialize(2048);
+        KeyPairGenerator ec = KeyPairGenerator.getInstance("EC");
+        ec.initialize(256);
+
+        List<KeyPair> keyPairs = new ArrayList<>();
+        keyPairs.add(rsa.generateKeyPair());
+        keyPairs.add(ec.generateKeyPair());
+        keyPairs.add(KeyPairGenerator.getInstance("Ed25519").generateKeyPair());
+
+        final byte[] digest = SignedPayload.post("announcement number 42 with a typical amount of text in it| 1 2 3", 42).digest();
+
+        System.out.println("scheme | threads | sign ops/s | verify ops/s | signature bytes | public key bytes");
+        for (KeyPair keyPair : keyPairs) {
+
+            SignatureScheme scheme = SignatureScheme.forKey(keyPair.getPublic());
+            byte[] signature = scheme.sign(digest, keyPair.getPrivate());
+
+            //warm up both operations
+            run(scheme, keyPair, digest, signature, operations, 1, false);
+            run(scheme, keyPair, digest, signature, operations, 1, true);
+
+            for (int count = 1; count <= threads; count *= 2) {
+                System.out.println(scheme.getName() + " | " + count
+                        + " | " + String.format("%.0f", run(scheme, keyPair, digest, signature, operations, count, false))
+                        + " | " + String.format("%.0f", run(scheme, keyPair, digest, signature, operations, count, true))
+                        + " | " + signature.length + " | " + keyPair.getPublic().getEncoded().length);
+            }
+        }
+    }
+
+    private static double run(final SignatureScheme scheme, final KeyPair keyPair, final byte[] digest, final byte[] signature,
+                              final int operations, int threads, final boolean verify) throws InterruptedException {
+
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < operations; j++) {
+                            if (verify) {
+                                if (!scheme.verify(signature, keyPair.getPublic(), digest)) {
+                                    throw new IllegalStateException("Signature did not verify");
+                                }
+                            } else {
+                                scheme.sign(digest, keyPair.getPrivate());
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            workers[i].start();
+        }
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return (double) operations * threads * 1000000000L / (System.nanoTime() - start);
+    }
+}
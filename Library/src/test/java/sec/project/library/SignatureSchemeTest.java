@@ -0,0 +1,49 @@
+package sec.project.library;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+public class SignatureSchemeTest
+{
+    @Test
+    public void everySchemeSignsPayloadsTest() throws Exception
+    {
+        KeyPairGenerator rsa = KeyPairGenerator.getInstance("RSA");
+        rsa.initialize(2048);
+        KeyPairGenerator ec = KeyPairGenerator.getInstance("EC");
+        ec.initialize(256);
+
+        signAndValidate(rsa.generateKeyPair(), SignatureScheme.RSA);
+        signAndValidate(ec.generateKeyPair(), SignatureScheme.ECDSA);
+        //Ed25519 is only in JDK 15 or later
+        signAndValidate(KeyPairGenerator.getInstance("Ed25519").generateKeyPair(), SignatureScheme.ED25519);
+    }
+
+    @Test
+    public void signatureFromAnotherKeyIsInvalidTest() throws Exception
+    {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519");
+        KeyPair signer = generator.generateKeyPair();
+        KeyPair other = generator.generateKeyPair();
+
+        byte[] signature = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post("ola| ", 1), signer.getPrivate());
+        assertFalse(AsymmetricCrypto.validateDigitalSignature(signature, other.getPublic(), SignedPayload.post("ola| ", 1)));
+        assertFalse(AsymmetricCrypto.validateDigitalSignature(new byte[] {1, 2, 3}, signer.getPublic(), SignedPayload.post("ola| ", 1)));
+    }
+
+    private void signAndValidate(KeyPair keyPair, SignatureScheme scheme) throws Exception
+    {
+        assertEquals(scheme, SignatureScheme.forKey(keyPair.getPublic()));
+        assertEquals(scheme, SignatureScheme.forKey(keyPair.getPrivate()));
+
+        byte[] signature = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post("ola| ", 1), keyPair.getPrivate());
+        assertTrue(AsymmetricCrypto.validateDigitalSignature(signature, keyPair.getPublic(), SignedPayload.post("ola| ", 1)));
+        assertFalse(AsymmetricCrypto.validateDigitalSignature(signature, keyPair.getPublic(), SignedPayload.post("ola| ", 2)));
+    }
+}
@@ -0,0 +1,46 @@
+package sec.project.library;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.javatuples.Quartet;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class SignedPayloadTest
+{
+    @Test
+    public void fieldBoundariesAreEncodedTest()
+    {
+        //"ola1" + 2 and "ola" + 12 used to be the same signed string
+        assertFalse(Arrays.equals(SignedPayload.post("ola1", 2).digest(), SignedPayload.post("ola", 12).digest()));
+        assertFalse(Arrays.equals(SignedPayload.readGeneral(1, 1).digest(), new SignedPayload("readGeneral").add(11).digest()));
+        assertFalse(Arrays.equals(SignedPayload.post("ola", 1).digest(), SignedPayload.acknowledge("ola", 1).digest()));
+        assertArrayEquals(SignedPayload.post("ola", 1).digest(), SignedPayload.post("ola", 1).digest());
+    }
+
+    @Test
+    public void readViewSignatureTest() throws Exception
+    {
+        ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> announces = new ArrayList<>();
+        announces.add(new Quartet<>(1, "ola| ", new byte[] {1, 2, 3}, new ArrayList<Integer>()));
+        announces.add(new Quartet<>(2, "adeus| 1", new byte[] {4, 5, 6}, new ArrayList<>(Arrays.asList(1))));
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        long clientId = KeyRegistry.fingerprint(keyPair.getPublic());
+        byte[] signature = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.readView(clientId, AnnouncementTree.root(announces), 7), keyPair.getPrivate());
+
+        assertTrue(AsymmetricCrypto.validateDigitalSignature(signature, keyPair.getPublic(), SignedPayload.readView(clientId, AnnouncementTree.root(announces), 7)));
+        assertFalse(AsymmetricCrypto.validateDigitalSignature(signature, keyPair.getPublic(), SignedPayload.readView(clientId, AnnouncementTree.root(announces), 8)));
+        //the references are covered by the root even though the announcements' own signatures leave them out
+        announces.get(1).getValue3().add(2);
+        assertFalse(AsymmetricCrypto.validateDigitalSignature(signature, keyPair.getPublic(), SignedPayload.readView(clientId, AnnouncementTree.root(announces), 7)));
+    }
+}
@@ -0,0 +1,64 @@
+package sec.project.library;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.javatuples.Triplet;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+public class VerificationCacheTest
+{
+    @Test
+    public void repeatedSignatureIsVerifiedOnceTest() throws Exception {
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        byte[] signature = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post("message| ", 1), keyPair.getPrivate());
+
+        long hits = VerificationCache.getHits();
+        long misses = VerificationCache.getMisses();
+
+        assertTrue(VerificationCache.validateDigitalSignature(signature, keyPair.getPublic(), SignedPayload.post("message| ", 1)));
+        assertTrue(VerificationCache.validateDigitalSignature(signature, keyPair.getPublic(), SignedPayload.post("message| ", 1)));
+        assertEquals(hits + 1, VerificationCache.getHits());
+        assertEquals(misses + 1, VerificationCache.getMisses());
+
+        //a bad signature is never remembered
+        assertFalse(VerificationCache.validateDigitalSignature(signature, keyPair.getPublic(), SignedPayload.post("message| ", 2)));
+        assertFalse(VerificationCache.validateDigitalSignature(signature, keyPair.getPublic(), SignedPayload.post("message| ", 2)));
+        assertEquals(hits + 1, VerificationCache.getHits());
+        assertEquals(misses + 3, VerificationCache.getMisses());
+    }
+
+    @Test
+    public void parallelVerificationChecksEveryAnnouncementTest() throws Exception {
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+
+        List<Triplet<byte[], PublicKey, SignedPayload>> checks = new ArrayList<>();
+        for (int wts = 1; wts <= 20; wts++) {
+            byte[] signature = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post("parallel| ", wts), keyPair.getPrivate());
+            checks.add(new Triplet<>(signature, keyPair.getPublic(), SignedPayload.post("parallel| ", wts)));
+            //the same announcement as another server returns it
+            checks.add(new Triplet<>(signature, keyPair.getPublic(), SignedPayload.post("parallel| ", wts)));
+        }
+
+        long misses = VerificationCache.getMisses();
+        assertTrue(ParallelVerifier.validateAll(checks));
+        assertEquals(misses + 20, VerificationCache.getMisses());
+
+        //one bad signature anywhere fails the whole view
+        checks.add(new Triplet<>(checks.get(0).getValue0(), keyPair.getPublic(), SignedPayload.post("parallel| ", 21)));
+        assertFalse(ParallelVerifier.validateAll(checks));
+    }
+}
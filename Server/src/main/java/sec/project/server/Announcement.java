@@ -6,16 +6,17 @@ import org.javatuples.Triplet;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Map;
 
 public class Announcement implements Serializable {
+    private static final long serialVersionUID = 5246864601880578090L;
+
     private ArrayList<Integer> references;
 
     // this is <wts, message, signature>
     private Triplet<Integer, String , byte[]> triplet;
     private Quartet<Integer, String, String, byte[]> quartet;
 
-    public Announcement(Triplet<Integer, String, byte[]> triplet, Map<Integer, Announcement> existingReferences){
+    public Announcement(Triplet<Integer, String, byte[]> triplet, AnnouncementStore existingReferences){
         this.triplet = triplet;
         this.references = new ArrayList<>();
         String message = triplet.getValue1();
@@ -28,7 +29,7 @@ public class Announcement implements Serializable {
         }
     }
 
-    public Announcement(Quartet<Integer, String, String, byte[]> quartet, Map<Integer, Announcement> existingReferences){
+    public Announcement(Quartet<Integer, String, String, byte[]> quartet, AnnouncementStore existingReferences){
 
         System.out.println("DEBUG: " + quartet);
         this.quartet = quartet;
@@ -43,6 +44,25 @@ public class Announcement implements Serializable {
         }
     }
 
+    // Announcements read back from disk already carry their resolved references
+    public Announcement(Triplet<Integer, String, byte[]> triplet, ArrayList<Integer> references){
+        this.triplet = triplet;
+        this.references = references;
+    }
+
+    public Announcement(Quartet<Integer, String, String, byte[]> quartet, ArrayList<Integer> references){
+        this.quartet = quartet;
+        this.references = references;
+    }
+
+    public boolean isGeneral() {
+        return this.quartet != null;
+    }
+
+    public int getWts() {
+        return this.triplet != null ? this.triplet.getValue0() : this.quartet.getValue0();
+    }
+
     public String printAnnouncement(){
         String ref = "";
         for(int i=0; i<this.references.size(); i++){
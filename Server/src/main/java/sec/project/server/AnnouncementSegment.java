@@ -0,0 +1,205 @@
+package sec.project.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Append-only file holding the announcements of one board, memory-mapped for reading. Opening a segment
+// only walks the record frames to index them by wts, an announcement is decoded when it is read.
+public class AnnouncementSegment {
+
+    private File file;
+    private FileChannel channel;
+    private byte[] boardRecord;
+    private boolean generalBoard;
+    private Map<Integer, Long> offsets;
+    private volatile MappedByteBuffer mapped;
+    private long size;
+    private int maxWts;
+
+    private AnnouncementSegment(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.offsets = new ConcurrentHashMap<>();
+    }
+
+    // The segment only appears once its board record is on disk
+    public static AnnouncementSegment create(File file, byte[] boardRecord) throws IOException {
+
+        File temp = new File(file.getPath() + ".tmp");
+
+        try (FileOutputStream output = new FileOutputStream(temp)) {
+            DataOutputStream data = new DataOutputStream(output);
+            StateCodec.writeSegmentHeader(data);
+            StateCodec.writeRecord(data, boardRecord);
+            data.flush();
+            output.getFD().sync();
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return open(file);
+    }
+
+    public static AnnouncementSegment open(File file) throws IOException {
+
+        AnnouncementSegment segment = new AnnouncementSegment(file);
+
+        try {
+            segment.index();
+        } catch (IOException e) {
+            segment.close();
+            throw e;
+        }
+
+        return segment;
+    }
+
+    private void index() throws IOException {
+
+        this.size = this.channel.size();
+        this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.size);
+
+        ByteBuffer buffer = this.mapped.duplicate();
+        StateCodec.readSegmentHeader(buffer);
+        this.boardRecord = StateCodec.readRecord(buffer);
+        this.generalBoard = StateCodec.isGeneralBoard(this.boardRecord);
+
+        while (buffer.hasRemaining()) {
+
+            int offset = buffer.position();
+            try {
+                //the wts leads every announcement record
+                int wts = ByteBuffer.wrap(StateCodec.readRecord(buffer)).getInt();
+                this.offsets.put(wts, (long) offset);
+                this.maxWts = Math.max(this.maxWts, wts);
+
+            } catch (IOException e) {
+
+                //only the last append can be torn, a bad record with more after it is corruption, and dropping it
+                //would take every later announcement with it, whose log segments are already gone
+                if (!isTail(offset)) {
+                    throw new IOException("Corrupt announcement record at " + this.file.getName() + ":" + offset
+                            + ", the segment must be repaired before the server can load it", e);
+                }
+
+                //drop it so the next one starts on a clean frame
+                System.out.println("WARNING: Truncating a torn announcement record at " + this.file.getName() + ":" + offset + ".");
+                this.channel.truncate(offset);
+                this.channel.force(true);
+                this.size = offset;
+                this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.size);
+                break;
+            }
+        }
+    }
+
+    // Whether the record framed at offset reaches the end of the file, as only a torn last append does
+    private boolean isTail(int offset) {
+
+        if (this.size - offset < 4) {
+            return true;
+        }
+
+        long length = this.mapped.getInt(offset);
+        return length >= 0 && offset + 4 + length + 4 >= this.size;
+    }
+
+    public synchronized void append(List<Announcement> announcements) throws IOException {
+
+        if (announcements.isEmpty()) {
+            return;
+        }
+
+        List<Announcement> sorted = new ArrayList<>(announcements);
+        Collections.sort(sorted, new Comparator<Announcement>() {
+            @Override
+            public int compare(Announcement first, Announcement second) {
+                return Integer.compare(first.getWts(), second.getWts());
+            }
+        });
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        long[] positions = new long[sorted.size()];
+
+        for (int i = 0; i < sorted.size(); i++) {
+            positions[i] = this.size + output.size();
+            Announcement announcement = sorted.get(i);
+            StateCodec.writeRecord(output, this.generalBoard ? StateCodec.encodeGeneralAnnouncement(announcement.getQuartet())
+                    : StateCodec.encodeAnnouncement(announcement.getTriplet()));
+        }
+
+        ByteBuffer batch = ByteBuffer.wrap(bytes.toByteArray());
+        long position = this.size;
+        while (batch.hasRemaining()) {
+            position += this.channel.write(batch, position);
+        }
+        this.channel.force(false);
+
+        //a mapping cannot grow, so the file is mapped again before the new records are indexed
+        this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, position);
+        this.size = position;
+
+        for (int i = 0; i < sorted.size(); i++) {
+            int wts = sorted.get(i).getWts();
+            this.offsets.put(wts, positions[i]);
+            this.maxWts = Math.max(this.maxWts, wts);
+        }
+    }
+
+    public Announcement read(int wts) {
+
+        Long offset = this.offsets.get(wts);
+        if (offset == null) {
+            return null;
+        }
+
+        ByteBuffer buffer = this.mapped.duplicate();
+        buffer.position(offset.intValue());
+
+        try {
+            byte[] record = StateCodec.readRecord(buffer);
+            return this.generalBoard ? StateCodec.decodeGeneralAnnouncement(record) : StateCodec.decodeAnnouncement(record);
+
+        } catch (IOException e) {
+            System.out.println("WARNING: Unable to read announcement " + wts + " from " + this.file.getName() + ".");
+            return null;
+        }
+    }
+
+    public boolean contains(int wts) {
+        return this.offsets.containsKey(wts);
+    }
+
+    public List<Integer> getWtsList() {
+        return new ArrayList<>(this.offsets.keySet());
+    }
+
+    public int size() {
+        return this.offsets.size();
+    }
+
+    public int getMaxWts() { return this.maxWts; }
+
+    public byte[] getBoardRecord() { return this.boardRecord; }
+
+    public long getSizeInBytes() { return this.size; }
+
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,213 @@
+package sec.project.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The announcements of one board. Those committed since the last snapshot are held on the heap, as are the
+// newest persisted ones (the hot window), since reads almost always ask for the last few. Older history
+// lives only in the board's segment and is decoded from it when a read reaches that far back.
+public class AnnouncementStore {
+
+    private static final int HOT_WINDOW = Integer.getInteger("dpas.board.hotWindow", 128);
+
+    private Map<Integer, Announcement> unpersisted;
+    private ConcurrentSkipListMap<Integer, Announcement> hot;
+    private volatile AnnouncementSegment segment;
+    private volatile int newestWts;
+    private MerkleTree merkleTree;
+    private AtomicLong hits;
+    private AtomicLong misses;
+
+    public AnnouncementStore(){
+        this.unpersisted = new ConcurrentHashMap<>();
+        this.hot = new ConcurrentSkipListMap<>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    public Announcement get(int wts){
+
+        Announcement announcement = this.unpersisted.get(wts);
+        if (announcement == null) {
+            announcement = this.hot.get(wts);
+        }
+
+        if (announcement != null) {
+            this.hits.incrementAndGet();
+            return announcement;
+        }
+
+        AnnouncementSegment segment = this.segment;
+        if (segment == null || !segment.contains(wts)) {
+            return null;
+        }
+
+        this.misses.incrementAndGet();
+        announcement = segment.read(wts);
+        if (announcement != null) {
+            keepIfHot(announcement);
+        }
+
+        return announcement;
+    }
+
+    // Background readers of the whole board go around the hot window and its statistics
+    private Announcement read(int wts){
+
+        Announcement announcement = this.unpersisted.get(wts);
+        if (announcement == null) {
+            announcement = this.hot.get(wts);
+        }
+
+        AnnouncementSegment segment = this.segment;
+        if (announcement == null && segment != null) {
+            announcement = segment.read(wts);
+        }
+
+        return announcement;
+    }
+
+    private void keepIfHot(Announcement announcement){
+
+        if (announcement.getWts() <= this.newestWts - HOT_WINDOW) {
+            return;
+        }
+
+        this.hot.put(announcement.getWts(), announcement);
+        while (this.hot.size() > HOT_WINDOW) {
+            this.hot.pollFirstEntry();
+        }
+    }
+
+    public boolean containsKey(int wts){
+        AnnouncementSegment segment = this.segment;
+        return this.unpersisted.containsKey(wts) || (segment != null && segment.contains(wts));
+    }
+
+    // Persisted announcements are never replaced
+    public synchronized void put(Announcement announcement){
+        AnnouncementSegment segment = this.segment;
+        if (segment == null || !segment.contains(announcement.getWts())) {
+
+            Announcement previous = this.unpersisted.put(announcement.getWts(), announcement);
+            if (announcement.getWts() > this.newestWts) {
+                this.newestWts = announcement.getWts();
+            }
+
+            if (this.merkleTree != null && previous != null) {
+                this.merkleTree.replace(previous, announcement);
+            } else if (this.merkleTree != null) {
+                this.merkleTree.add(announcement);
+            }
+        }
+    }
+
+    // Only built once anti-entropy first asks for it, so loading a board still decodes nothing
+    public synchronized MerkleTree getMerkleTree(){
+
+        if (this.merkleTree == null) {
+            MerkleTree merkleTree = new MerkleTree();
+            for (int wts : getWtsList()) {
+                Announcement announcement = read(wts);
+                if (announcement != null) {
+                    merkleTree.add(announcement);
+                }
+            }
+            this.merkleTree = merkleTree;
+        }
+
+        return this.merkleTree;
+    }
+
+    public int size(){
+
+        AnnouncementSegment segment = this.segment;
+        if (segment == null) {
+            return this.unpersisted.size();
+        }
+
+        int size = segment.size();
+        for (int wts : this.unpersisted.keySet()) {
+            if (!segment.contains(wts)) {
+                size++;
+            }
+        }
+
+        return size;
+    }
+
+    public List<Integer> getWtsList(){
+
+        AnnouncementSegment segment = this.segment;
+        List<Integer> result = segment != null ? segment.getWtsList() : new ArrayList<Integer>();
+
+        //an announcement sits in both places between being appended and being dropped from the heap
+        for (int wts : this.unpersisted.keySet()) {
+            if (segment == null || !segment.contains(wts)) {
+                result.add(wts);
+            }
+        }
+
+        return result;
+    }
+
+    public List<Announcement> getUnpersisted(){
+        return new ArrayList<>(this.unpersisted.values());
+    }
+
+    public void attach(AnnouncementSegment segment){
+        this.segment = segment;
+        if (segment.getMaxWts() > this.newestWts) {
+            this.newestWts = segment.getMaxWts();
+        }
+        for (int wts : this.unpersisted.keySet()) {
+            if (segment.contains(wts)) {
+                this.unpersisted.remove(wts);
+            }
+        }
+    }
+
+    // Appends the heap announcements to the segment, keeping on the heap only those in the hot window
+    public void persist() throws IOException {
+
+        List<Announcement> announcements = getUnpersisted();
+        this.segment.append(announcements);
+
+        for (Announcement announcement : announcements) {
+            keepIfHot(announcement);
+            this.unpersisted.remove(announcement.getWts(), announcement);
+        }
+    }
+
+    public AnnouncementSegment getSegment() { return this.segment; }
+
+    public long getHits() { return this.hits.get(); }
+
+    public long getMisses() { return this.misses.get(); }
+
+    public double getHitRate() {
+        long hits = this.hits.get();
+        long reads = hits + this.misses.get();
+        return reads == 0 ? 0 : (double) hits / reads;
+    }
+
+    public int getResidentCount() { return this.unpersisted.size() + this.hot.size(); }
+
+    public String getStatistics() {
+        return "announcements: " + size() + ", resident: " + getResidentCount()
+                + ", hits: " + getHits() + ", misses: " + getMisses()
+                + ", hit rate: " + String.format("%.2f", getHitRate() * 100) + "%"
+                + " (hot window " + HOT_WINDOW + ")";
+    }
+
+    public void close() throws IOException {
+        if (this.segment != null) {
+            this.segment.close();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package sec.project.server;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Periodically compares every board's Merkle tree with each peer and pulls the announcements this replica
+// is missing, e.g. after a broadcast round timed out here but completed elsewhere
+public class AntiEntropy {
+
+    private static final long INTERVAL_SECONDS = Long.getLong("dpas.antiEntropy.intervalSeconds", 30);
+
+    private ScheduledExecutorService executor;
+
+    public AntiEntropy(final Server server, final int serverPort){
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "anti-entropy-" + serverPort);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.antiEntropy();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void shutdown(){
+        this.executor.shutdownNow();
+    }
+}
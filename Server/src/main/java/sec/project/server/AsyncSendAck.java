@@ -4,35 +4,35 @@ import sec.project.library.Acknowledge;
 import sec.project.library.ClientAPI;
 
 import java.rmi.RemoteException;
-import java.security.PublicKey;
+import java.util.Map;
 
 public class AsyncSendAck implements Runnable {
 
     private ClientAPI stub;
-    private PublicKey clientPublicKey;
+    private long clientId;
     private String value;
     private int wts;
     private byte[] signature;
-    private byte[] sSSignature;
-    private PublicKey serverPublicKey;
+    private Map<Long, byte[]> serverMacs;
+    private long serverId;
 
-    public AsyncSendAck(ClientAPI stub, PublicKey clientPublicKey, String value, int wts, byte[] signature,
-                        byte[] sSSignature, PublicKey serverPublicKey){
+    public AsyncSendAck(ClientAPI stub, long clientId, String value, int wts, byte[] signature,
+                        Map<Long, byte[]> serverMacs, long serverId){
 
         this.stub = stub;
-        this.clientPublicKey = clientPublicKey;
+        this.clientId = clientId;
         this.value = value;
         this.wts = wts;
         this.signature = signature;
-        this.sSSignature = sSSignature;
-        this.serverPublicKey = serverPublicKey;
+        this.serverMacs = serverMacs;
+        this.serverId = serverId;
     }
 
     @Override
     public void run() {
 
         try {
-            stub.postGeneral(this.clientPublicKey, this.value, this.wts, this.signature, this.sSSignature, this.serverPublicKey);
+            stub.postGeneral(this.clientId, this.value, this.wts, this.signature, this.serverMacs, this.serverId);
         } catch (RemoteException e){
             e.printStackTrace();
         }
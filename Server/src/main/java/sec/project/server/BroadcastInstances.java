@@ -0,0 +1,118 @@
+package sec.project.server;
+
+import org.javatuples.Pair;
+import sec.project.library.ClientAPI;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The broadcasts in progress on this replica, one instance per (client, wts). A client can have several posts in
+// flight, and an ECHO or READY that arrives before this replica starts a round is counted by the instance its local
+// write joins later. An instance is dropped when its local write returns after delivery. Instances that are never
+// delivered here (the client never posted to this replica, or the round timed out) are swept once nothing has
+// touched them for twice the broadcast deadline. Messages for a wts already on the board are stale and ignored.
+// Any authenticated replica can name any wts, so rounds are only opened for a wts within dpas.broadcast.wtsWindow
+// of the newest one on the client's board; that keeps a Byzantine peer to a few rounds per client, not unbounded.
+public class BroadcastInstances {
+
+    private static final long EXPIRY_MILLIS = 2 * DoubleEchoBroadcaster.DEADLINE_MILLIS;
+    private static final long SWEEP_MILLIS = 1000;
+    private static final int WTS_WINDOW = Integer.getInteger("dpas.broadcast.wtsWindow", 16);
+
+    private ReplicaKeys replicaKeys;
+    private PeerDispatcher peerDispatcher;
+    private ConcurrentMap<Pair<Long, Integer>, DoubleEchoBroadcaster> instances;
+    private AtomicLong lastSweep;
+
+    private AtomicLong opened = new AtomicLong();
+    private AtomicLong released = new AtomicLong();
+    private AtomicLong expired = new AtomicLong();
+    private AtomicLong refused = new AtomicLong();
+
+    public BroadcastInstances(ReplicaKeys replicaKeys, PeerDispatcher peerDispatcher){
+        this.replicaKeys = replicaKeys;
+        this.peerDispatcher = peerDispatcher;
+        this.instances = new ConcurrentHashMap<>();
+        this.lastSweep = new AtomicLong(System.currentTimeMillis());
+    }
+
+    // The round of the client's write wts, started if nobody asked for it yet. Null for an unknown client, a
+    // wts this replica has already delivered, or one too far from the board's to be opened, which inWindow tells apart.
+    public DoubleEchoBroadcaster get(ClientLibrary clientLibrary, int wts, Map<Long, ClientAPI> stubs){
+
+        if (clientLibrary == null || clientLibrary.getAnnouncements().containsKey(wts)) {
+            return null;
+        }
+
+        if (!inWindow(clientLibrary, wts)) {
+            this.refused.incrementAndGet();
+            return null;
+        }
+
+        sweep();
+
+        Pair<Long, Integer> key = new Pair<>(clientLibrary.getClientId(), wts);
+        DoubleEchoBroadcaster broadcaster = this.instances.get(key);
+        if (broadcaster == null) {
+            DoubleEchoBroadcaster created = new DoubleEchoBroadcaster(clientLibrary, wts, stubs, this.replicaKeys, this.peerDispatcher);
+            broadcaster = this.instances.putIfAbsent(key, created);
+            if (broadcaster == null) {
+                broadcaster = created;
+                this.opened.incrementAndGet();
+            }
+        }
+
+        broadcaster.touch();
+        return broadcaster;
+    }
+
+    // Posts of one client may deliver out of order, so a window below the newest wts stays open as well
+    public boolean inWindow(ClientLibrary clientLibrary, int wts){
+        int boardWts = clientLibrary.getOneNAtomicRegister().getWts();
+        return wts > boardWts - WTS_WINDOW && wts <= boardWts + WTS_WINDOW;
+    }
+
+    // Called when the local write of a round returns. Until it is delivered, the round stays open so a retry of the
+    // same post joins it instead of starting over.
+    public void release(ClientLibrary clientLibrary, int wts, DoubleEchoBroadcaster broadcaster){
+
+        if (broadcaster != null && broadcaster.isDelivered()
+                && this.instances.remove(new Pair<>(clientLibrary.getClientId(), wts), broadcaster)) {
+
+            this.released.incrementAndGet();
+        }
+    }
+
+    // The round, only if it is open already
+    public DoubleEchoBroadcaster find(long clientId, int wts){
+        return this.instances.get(new Pair<>(clientId, wts));
+    }
+
+    public int size(){ return this.instances.size(); }
+
+    public String getStatistics(){
+        return this.instances.size() + " in flight, " + this.opened.get() + " opened, " + this.released.get()
+                + " delivered and released, " + this.expired.get() + " expired, " + this.refused.get() + " refused out of window";
+    }
+
+    // At most once a second, by whichever caller gets there first
+    private void sweep(){
+
+        long now = System.currentTimeMillis();
+        long last = this.lastSweep.get();
+        if (now - last < SWEEP_MILLIS || !this.lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+
+        Iterator<DoubleEchoBroadcaster> iterator = this.instances.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getTouchedMillis() > EXPIRY_MILLIS) {
+                iterator.remove();
+                this.expired.incrementAndGet();
+            }
+        }
+    }
+}
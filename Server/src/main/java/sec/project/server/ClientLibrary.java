@@ -3,47 +3,98 @@ package sec.project.server;
 import org.javatuples.Quartet;
 import org.javatuples.Triplet;
 import sec.project.library.ClientAPI;
+import sec.project.library.KeyRegistry;
 import sec.project.library.ReadView;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.rmi.RemoteException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 public class ClientLibrary implements Serializable {
+    private static final long serialVersionUID = -1918735511011926642L;
+
     private String clientNumber;
-    private Map<Integer, Announcement> announcements;
     private OneNAtomicRegister oneNAtomicRegister;
-    private DoubleEchoBroadcaster doubleEchoBroadcaster;
     private PublicKey clientPublicKey;
-    private PublicKey serverPublicKey;
-    private PrivateKey serverPrivateKey;
 
-    public ClientLibrary(String clientNumber, PublicKey clientPublicKey, PublicKey serverPublicKey, PrivateKey serverPrivateKey){
+    //the key's fingerprint, which requests name the client by
+    private transient long clientId;
+
+    //announcements are persisted in the board's segment
+    private transient AnnouncementStore announcements;
+
+    public ClientLibrary(String clientNumber, PublicKey clientPublicKey){
         this.clientNumber = clientNumber;
         this.clientPublicKey = clientPublicKey;
-        this.announcements = new HashMap<>();
+        this.clientId = KeyRegistry.fingerprint(clientPublicKey);
+        this.announcements = new AnnouncementStore();
         this.oneNAtomicRegister = new OneNAtomicRegister(this);
-        this.serverPrivateKey = serverPrivateKey;
-        this.serverPublicKey = serverPublicKey;
+    }
+
+    // Old state files stored the announcements as a map of the board, which now only seeds the store
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+
+        ObjectInputStream.GetField fields = input.readFields();
+        this.clientNumber = (String) fields.get("clientNumber", null);
+        this.oneNAtomicRegister = (OneNAtomicRegister) fields.get("oneNAtomicRegister", null);
+        this.clientPublicKey = (PublicKey) fields.get("clientPublicKey", null);
+        this.clientId = KeyRegistry.fingerprint(this.clientPublicKey);
+
+        this.announcements = new AnnouncementStore();
+        Map<Integer, Announcement> announcements = (Map<Integer, Announcement>) fields.get("announcements", null);
+        if (announcements != null) {
+            for (Announcement announcement : announcements.values()) {
+                this.announcements.put(announcement);
+            }
+        }
+    }
+
+    public synchronized void attachSegment(AnnouncementSegment segment){
+        this.announcements.attach(segment);
+        this.oneNAtomicRegister.restoreWts(segment.getMaxWts());
     }
 
     public synchronized void addAnnouncement(Triplet<Integer, String, byte[]> triplet){
         Announcement announcement = new Announcement(triplet, getAnnouncements());
-        this.announcements.put(triplet.getValue0(), announcement);
+        this.announcements.put(announcement);
         System.out.println("\nOn client" + clientNumber + "'s board:"+ announcement.printAnnouncement());
     }
 
+    // The value a broadcast round delivered. The check, the add and the register's wts move together, so two rounds
+    // of this client delivering at once cannot add a wts twice or move the wts backwards.
+    public synchronized void deliverAnnouncement(Triplet<Integer, String, byte[]> triplet){
+        if (!this.announcements.containsKey(triplet.getValue0())) {
+            addAnnouncement(triplet);
+            this.oneNAtomicRegister.restoreWts(triplet.getValue0());
+        }
+    }
+
+    public synchronized void restoreAnnouncement(Announcement announcement){
+        this.announcements.put(announcement);
+        this.oneNAtomicRegister.restoreWts(announcement.getWts());
+    }
+
+    public synchronized void restoreAnnouncement(Triplet<Integer, String, byte[]> triplet){
+        if (!this.announcements.containsKey(triplet.getValue0())) {
+            this.announcements.put(new Announcement(triplet, getAnnouncements()));
+            this.oneNAtomicRegister.restoreWts(triplet.getValue0());
+        }
+    }
+
     public ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> getAnnouncementsTriplets(int number){
         ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> result = new ArrayList<>();
 
@@ -57,7 +108,31 @@ public class ClientLibrary implements Serializable {
         }
 
         for (int i = maxWts - aux + 1; i <= maxWts; i++) {
-            result.add(this.announcements.get(i).getTriplet());
+            Announcement announcement = this.announcements.get(i);
+            if (announcement != null) {
+                result.add(announcement.getTriplet());
+            }
+        }
+
+        return result;
+    }
+
+    public ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> getAnnouncementsTripletsAfter(int wts){
+        ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> result = new ArrayList<>();
+
+        List<Integer> newer = new ArrayList<>();
+        for (int existing : this.announcements.getWtsList()) {
+            if (existing > wts) {
+                newer.add(existing);
+            }
+        }
+        Collections.sort(newer);
+
+        for (int i : newer) {
+            Announcement announcement = this.announcements.get(i);
+            if (announcement != null) {
+                result.add(announcement.getTriplet());
+            }
         }
 
         return result;
@@ -71,26 +146,36 @@ public class ClientLibrary implements Serializable {
         return this.clientPublicKey;
     }
 
+    public long getClientId() { return this.clientId; }
+
     public ArrayList<Integer> getExistingReferences(){
-        return new ArrayList<>(this.announcements.keySet());
+        return new ArrayList<>(this.announcements.getWtsList());
     }
 
-    public Map<Integer, Announcement> getAnnouncements() { return this.announcements; }
+    public AnnouncementStore getAnnouncements() { return this.announcements; }
 
     public OneNAtomicRegister getOneNAtomicRegister() { return this.oneNAtomicRegister; }
 
-    public DoubleEchoBroadcaster getDoubleEchoBroadcaster() { return this.doubleEchoBroadcaster; }
-
-    public String write(int wts, String message, byte[] signature, Map<PublicKey, ClientAPI> stubs) throws NoSuchPaddingException,
+    public String write(int wts, String message, byte[] signature, BroadcastInstances broadcasts, Map<Long, ClientAPI> stubs) throws NoSuchPaddingException,
             UnsupportedEncodingException, IllegalBlockSizeException, BadPaddingException, NoSuchAlgorithmException, InvalidKeyException, RemoteException, InterruptedException {
 
-        this.doubleEchoBroadcaster = new DoubleEchoBroadcaster(this, stubs);
-        return this.oneNAtomicRegister.write(wts, message, signature, this.serverPrivateKey, this.serverPublicKey);
+        DoubleEchoBroadcaster broadcaster = broadcasts.get(this, wts, stubs);
+        try {
+            String result = this.oneNAtomicRegister.write(wts, message, signature, broadcaster);
+
+            //a wts refused for being too far from the board is told apart from one that is already on it
+            if (result.equals("IGNORED") && broadcaster == null && !this.announcements.containsKey(wts) && !broadcasts.inWindow(this, wts)) {
+                return "OUTOFWINDOW";
+            }
+            return result;
+        } finally {
+            broadcasts.release(this, wts, broadcaster);
+        }
     }
 
-    public ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> read(int number, int rid, byte[] signature, PublicKey clientPublicKey) throws NoSuchPaddingException,
-            UnsupportedEncodingException, IllegalBlockSizeException, BadPaddingException, NoSuchAlgorithmException, InvalidKeyException {
+    public ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> read(int number, int rid, byte[] mac, SecretKey sessionKey) throws NoSuchAlgorithmException,
+            InvalidKeyException {
 
-        return this.oneNAtomicRegister.read(number, rid, signature, clientPublicKey);
+        return this.oneNAtomicRegister.read(number, rid, mac, sessionKey);
     }
 }
\ No newline at end of file
@@ -0,0 +1,161 @@
+package sec.project.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The stage where ECHO, READY and commit messages from other replicas are checked. Each message is
+// authenticated on one of these workers, in parallel with the others, and only then takes its board's lock
+// to update the broadcast state, so a burst of messages keeps every core busy instead of queueing on a lock.
+//
+// The batches of one sender are handled one at a time, in the order they arrived, so what a peer sends in order
+// is also applied in order here; only the batches of different senders run in parallel.
+//
+// Each sender has a bounded queue (dpas.crypto.queueSize batches). Quorum messages are never sent again, so one
+// dropped here could hold a broadcast or a general board commit until its deadline; a full queue makes the call
+// that delivers the batch wait for room instead. That wait pushes back on the sender's dispatch thread for this
+// replica, and it is the sender's dispatch queue that fills and drops (see PeerDispatcher) if this replica cannot
+// keep up, while the other senders are not held up. Batches are only dropped once the workers are shut down.
+public class CryptoWorkers {
+
+    private static final int WORKERS = Integer.getInteger("dpas.crypto.workers", Runtime.getRuntime().availableProcessors());
+    private static final int QUEUE_SIZE = Integer.getInteger("dpas.crypto.queueSize", 4096);
+    private static final long WAIT_MILLIS = 100;
+
+    private int queueSize;
+    private ThreadPoolExecutor executor;
+    private ConcurrentMap<Long, Sender> senders;
+    private AtomicLong waited = new AtomicLong();
+    private AtomicLong dropped = new AtomicLong();
+
+    public CryptoWorkers(final int serverPort){
+        this(serverPort, WORKERS, QUEUE_SIZE);
+    }
+
+    public CryptoWorkers(final int serverPort, int workers, int queueSize){
+
+        final AtomicInteger count = new AtomicInteger();
+        this.queueSize = queueSize;
+        this.senders = new ConcurrentHashMap<>();
+        //at most one drain per sender is queued, past that the caller runs the task itself rather than lose it
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "crypto-" + serverPort + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    public void execute(Runnable message){
+        try {
+            this.executor.execute(message);
+        } catch (RejectedExecutionException e) {
+            drop();
+        }
+    }
+
+    // After everything the same sender handed over before it, waiting for room if the sender's queue is full
+    public void execute(long senderId, Runnable message){
+
+        Sender sender = sender(senderId);
+        try {
+            if (!sender.pending.offer(message)) {
+                this.waited.incrementAndGet();
+                while (!sender.pending.offer(message, WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (this.executor.isShutdown()) {
+                        drop();
+                        return;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drop();
+            return;
+        }
+
+        //one drain at a time per sender picks up everything queued for it until it runs out
+        if (sender.draining.compareAndSet(false, true)) {
+            schedule(sender);
+        }
+    }
+
+    public void shutdown(){
+        this.executor.shutdownNow();
+    }
+
+    public String getStatistics(){
+        return this.executor.getCompletedTaskCount() + " drains run, " + this.executor.getQueue().size() + " queued now, "
+                + this.waited.get() + " times a sender waited for room, " + this.dropped.get() + " dropped at shutdown";
+    }
+
+    private Sender sender(long senderId){
+
+        Sender sender = this.senders.get(senderId);
+        if (sender == null) {
+            Sender created = new Sender(this.queueSize);
+            sender = this.senders.putIfAbsent(senderId, created);
+            if (sender == null) {
+                sender = created;
+            }
+        }
+        return sender;
+    }
+
+    private void schedule(final Sender sender){
+        try {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain(sender);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            sender.draining.set(false);
+            drop();
+        }
+    }
+
+    private void drain(Sender sender){
+
+        Runnable message;
+        while ((message = sender.pending.poll()) != null) {
+            try {
+                message.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        sender.draining.set(false);
+
+        //a message queued after the last poll but before the flag was cleared found the drain still running
+        if (!sender.pending.isEmpty() && sender.draining.compareAndSet(false, true)) {
+            schedule(sender);
+        }
+    }
+
+    private void drop(){
+        this.dropped.incrementAndGet();
+    }
+
+    private static class Sender {
+
+        private BlockingQueue<Runnable> pending;
+        private AtomicBoolean draining = new AtomicBoolean();
+
+        private Sender(int queueSize){
+            this.pending = new ArrayBlockingQueue<>(queueSize);
+        }
+    }
+}
@@ -1,188 +1,257 @@
 package sec.project.server;
 
-import org.javatuples.Pair;
 import org.javatuples.Triplet;
-import sec.project.library.AsymmetricCrypto;
 import sec.project.library.ClientAPI;
+import sec.project.library.ReplicaMessage;
+import sec.project.library.SignedPayload;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.rmi.RemoteException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.PrivateKey;
-import java.security.PublicKey;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+// Never persisted any more, it only stays Serializable so that old state files that embedded it still load.
+// Every replica gets the value of a write from the client itself, so ECHO and READY only carry its digest; a
+// replica that delivers a value it never got, because the client sent it another one, fetches it from a peer
+// that vouched for it.
 public class DoubleEchoBroadcaster implements Serializable {
 
-    private PrivateKey serverPrivateKey;
-    private PublicKey serverPublicKey;
+    private static final long serialVersionUID = -4089432312231341187L;
+
+    //how long a replica waits for a write to be delivered before giving up on it
+    static final long DEADLINE_MILLIS = Long.getLong("dpas.broadcast.deadlineMillis", 10000);
+
+    private long serverId;
+    private transient int wts;
+    private transient ReplicaKeys replicaKeys;
+    private transient PeerDispatcher peerDispatcher;
 
     private ClientLibrary clientLibrary;
     private boolean sentEcho;
     private boolean sentReady;
     private boolean delivered;
-    private Map<PublicKey, Triplet<Integer, String, byte[]>> echoes; /* Overhead the albatross... */
-    private Map<Pair<Integer, String>, Integer> echoMessagesCount;
-    private Triplet<Integer, String, byte[]> echoedMessage;
-    private Map<PublicKey, Triplet<Integer, String, byte[]>> readys;
-    private Map<Pair<Integer, String>, Integer> readyMessagesCount;
-    private Triplet<Integer, String, byte[]> readyedMessage;
-    private Map<PublicKey, ClientAPI> stubs;
-
-    public DoubleEchoBroadcaster(ClientLibrary clientLibrary, Map<PublicKey, ClientAPI> stubs){
+    private transient CountDownLatch deliveredLatch;
+    private transient volatile long touchedMillis;
+    private transient Map<ByteBuffer, Triplet<Integer, String, byte[]>> values;
+    private transient Map<Long, ByteBuffer> echoes; /* Overhead the albatross... */
+    private transient Map<ByteBuffer, Integer> echoMessagesCount;
+    private transient Map<Long, ByteBuffer> readys;
+    private transient Map<ByteBuffer, Integer> readyMessagesCount;
+    private transient ByteBuffer readyedDigest;
+    private Map<Long, ClientAPI> stubs;
+
+    public DoubleEchoBroadcaster(ClientLibrary clientLibrary, int wts, Map<Long, ClientAPI> stubs, ReplicaKeys replicaKeys, PeerDispatcher peerDispatcher){
         this.clientLibrary = clientLibrary;
+        this.wts = wts;
         this.stubs = stubs;
-    }
-
-    public Triplet<Integer, String, byte[]> write(Triplet <Integer, String, byte[]> valueTriplet, PrivateKey serverPrivateKey, PublicKey serverPublicKey) throws UnsupportedEncodingException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, NoSuchAlgorithmException, NoSuchPaddingException, RemoteException, InterruptedException {
+        this.replicaKeys = replicaKeys;
+        this.peerDispatcher = peerDispatcher;
+        this.serverId = replicaKeys.getServerId();
 
-        //System.out.println("DEBUG: Server received broadcast request. Args: " + valueTriplet.getValue0() + " | " + valueTriplet.getValue1());
-
-        this.serverPrivateKey = serverPrivateKey;
-        this.serverPublicKey = serverPublicKey;
+        //a broadcaster serves the round of a single (client, wts), and peers may echo before this replica starts it
+        this.values = new HashMap<>();
         this.echoes = new HashMap<>();
         this.echoMessagesCount = new HashMap<>();
         this.readys = new HashMap<>();
         this.readyMessagesCount = new HashMap<>();
-        this.sentEcho = false;
-        this.sentReady = false;
-        this.delivered = false;
+        this.deliveredLatch = new CountDownLatch(1);
+        this.touchedMillis = System.currentTimeMillis();
+    }
 
-        if(!this.sentEcho){
+    public Triplet<Integer, String, byte[]> write(Triplet <Integer, String, byte[]> valueTriplet) throws RemoteException, InterruptedException {
 
-            //System.out.println("DEBUG: Server initiated sending of ECHO messages.");
+        //System.out.println("DEBUG: Server received broadcast request. Args: " + valueTriplet.getValue0() + " | " + valueTriplet.getValue1());
+
+        ByteBuffer digest = digest(valueTriplet);
 
+        //a retry of the same post joins the round already started, and echoes counted before it are kept
+        boolean startEcho;
+        synchronized (this) {
+            this.values.put(digest, valueTriplet);
+            startEcho = !this.sentEcho;
             this.sentEcho = true;
+        }
 
-            //echo to myself
-            echo(this.clientLibrary.getClientPublicKey(), valueTriplet, AsymmetricCrypto.wrapDigitalSignature( this.clientLibrary.getClientPublicKey() + AsymmetricCrypto.transformTripletToString(valueTriplet), this.serverPrivateKey), this.serverPublicKey);
+        if(startEcho){
 
-            for (Map.Entry<PublicKey, ClientAPI> stub : this.stubs.entrySet()){
-                AsyncSendEcho asyncSendEcho = new AsyncSendEcho(stub.getValue(), this.clientLibrary.getClientPublicKey(), valueTriplet, AsymmetricCrypto.wrapDigitalSignature(
-                        this.clientLibrary.getClientPublicKey() + AsymmetricCrypto.transformTripletToString(valueTriplet), this.serverPrivateKey), this.serverPublicKey, false);
-                new Thread(asyncSendEcho).start();
-            }
+            //System.out.println("DEBUG: Server initiated sending of ECHO messages.");
 
-        }
+            //echo to myself, which needs no MAC
+            countEcho(digest, this.serverId);
 
-        int seconds = 0;
-        while(!this.delivered){
+            //authenticated with the rest of the batch it joins for each peer
+            ReplicaMessage echo = ReplicaMessage.echo(this.clientLibrary.getClientId(), this.wts, digest.array());
+            for (Map.Entry<Long, ClientAPI> stub : this.stubs.entrySet()){
+                this.peerDispatcher.send(stub.getKey(), stub.getValue(), echo);
+            }
 
-            Thread.sleep(100);
-            seconds++;
-            if (seconds > 100) {
+        }
 
-                //System.out.println("TIMEOUT: Could not complete the ADEB algorithm.");
+        //released by ready() the moment the READY quorum is reached, which may even be before this point
+        if (!this.deliveredLatch.await(DEADLINE_MILLIS, TimeUnit.MILLISECONDS)) {
 
-                return null;
-            }
+            //System.out.println("TIMEOUT: Could not complete the ADEB algorithm.");
 
+            return null;
         }
 
         //System.out.println("DEBUG: Server completed READY phase." );
         //System.out.println("DEBUG: Server completed broadcast request.");
 
-        return readyedMessage;
+        Triplet<Integer, String, byte[]> delivered = getValue(this.readyedDigest.array());
+        return delivered != null ? delivered : fetchValue();
+
+    }
+
+    public boolean isDelivered() { return this.deliveredLatch.getCount() == 0; }
+
+    public void touch() { this.touchedMillis = System.currentTimeMillis(); }
+
+    public long getTouchedMillis() { return this.touchedMillis; }
 
+    // The value with that digest, if this replica has it
+    public synchronized Triplet<Integer, String, byte[]> getValue(byte[] digest) {
+        return this.values.get(ByteBuffer.wrap(digest));
     }
 
-    public synchronized void echo(PublicKey clientPublicKey, Triplet<Integer, String, byte[]> message, byte[] signature, PublicKey serverPublicKey) throws UnsupportedEncodingException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, NoSuchAlgorithmException, NoSuchPaddingException, RemoteException {
+    // An ECHO or READY from another replica, whose batch was already authenticated outside the lock
+    public void deliver(ReplicaMessage message, long serverId) {
+
+        //System.out.println("DEBUG: Server received " + message.getType() + ". Args: " + message.getWts());
+
+        if (this.stubs.containsKey(serverId) && message.getClientId() == this.clientLibrary.getClientId()
+                && message.getWts() == this.wts && message.getDigest() != null) {
+            if (message.getType() == ReplicaMessage.ECHO) {
+                countEcho(ByteBuffer.wrap(message.getDigest()), serverId);
+            } else if (message.getType() == ReplicaMessage.READY) {
+                countReady(ByteBuffer.wrap(message.getDigest()), serverId);
+            }
+        }
+    }
 
-        //System.out.println("DEBUG: Server received ECHO. Args: " + message.getValue0() + " | " + message.getValue1());
+    private synchronized void countEcho(ByteBuffer digest, long serverId) {
 
-        if ((this.stubs.containsKey(serverPublicKey) || serverPublicKey.equals(this.serverPublicKey)) && AsymmetricCrypto.validateDigitalSignature(signature, serverPublicKey,
-                clientPublicKey + AsymmetricCrypto.transformTripletToString(message)) && this.echoes.get(serverPublicKey) == null) {
+        if (this.echoes.get(serverId) == null) {
 
 
             //System.out.println("DEBUG: Server validated ECHO signature.");
 
-            this.echoes.put(serverPublicKey, message);
-            Pair<Integer, String> rawMessage = new Pair<>(message.getValue0(), message.getValue1());
+            this.echoes.put(serverId, digest);
 
-            if(this.echoMessagesCount.get(rawMessage) == null){
-                this.echoMessagesCount.put(rawMessage, 1);
+            if(this.echoMessagesCount.get(digest) == null){
+                this.echoMessagesCount.put(digest, 1);
             } else {
-                int count = this.echoMessagesCount.get(rawMessage);
-                this.echoMessagesCount.put(rawMessage, count + 1);
+                int count = this.echoMessagesCount.get(digest);
+                this.echoMessagesCount.put(digest, count + 1);
             }
 
             //System.out.println("DEBUG: State of the server's ECHO message count: " + this.echoMessagesCount);
 
-            if(this.echoMessagesCount.get(rawMessage) > (this.stubs.size() + (this.stubs.size() / 3)) / 2 && this.sentReady == false){
+            if(this.echoMessagesCount.get(digest) > (this.stubs.size() + (this.stubs.size() / 3)) / 2 && this.sentReady == false){
 
                 //System.out.println("DEBUG: Server initiated sending of READY messages.");
 
                 this.sentReady = true;
-                this.echoedMessage = message;
 
                 //ready to myself
-                ready(this.clientLibrary.getClientPublicKey(), message, AsymmetricCrypto.wrapDigitalSignature(
-                        this.clientLibrary.getClientPublicKey() + AsymmetricCrypto.transformTripletToString(message), this.serverPrivateKey), this.serverPublicKey);
-
-                for (Map.Entry<PublicKey, ClientAPI> stub : this.stubs.entrySet()){
-
-                    //System.out.println("DEBUG: Server will send a READY message from ECHO...");
+                countReady(digest, this.serverId);
 
-                    AsyncSendEcho asyncSendEcho = new AsyncSendEcho(stub.getValue(), this.clientLibrary.getClientPublicKey(), message, AsymmetricCrypto.wrapDigitalSignature(
-                            this.clientLibrary.getClientPublicKey() + AsymmetricCrypto.transformTripletToString(message), this.serverPrivateKey), this.serverPublicKey, true);
-                    new Thread(asyncSendEcho).start();
-
-                    //System.out.println("DEBUG: Server sent READY from ECHO. Args: " + message.getValue0() + " | " + message.getValue1());
-
-                }
+                sendReady(digest);
             }
         }
     }
 
-    public synchronized void ready(PublicKey clientPublicKey, Triplet<Integer, String, byte[]> message, byte[] signature, PublicKey serverPublicKey) throws UnsupportedEncodingException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, NoSuchAlgorithmException, NoSuchPaddingException, RemoteException {
+    private synchronized void countReady(ByteBuffer digest, long serverId) {
 
-        //System.out.println("DEBUG: Server received READY. Args: " + message.getValue0() + " | " + message.getValue1());
-
-        if ((this.stubs.containsKey(serverPublicKey) || serverPublicKey.equals(this.serverPublicKey)) && AsymmetricCrypto.validateDigitalSignature(signature, serverPublicKey,
-                clientPublicKey + AsymmetricCrypto.transformTripletToString(message)) && this.readys.get(serverPublicKey) == null) {
+        if (this.readys.get(serverId) == null) {
 
             //System.out.println("DEBUG: Server validated READY signature.");
 
-            this.readys.put(serverPublicKey, message);
-            Pair<Integer, String> rawMessage = new Pair<>(message.getValue0(), message.getValue1());
+            this.readys.put(serverId, digest);
 
-            if(this.readyMessagesCount.get(rawMessage) == null){
-                this.readyMessagesCount.put(rawMessage, 1);
+            if(this.readyMessagesCount.get(digest) == null){
+                this.readyMessagesCount.put(digest, 1);
             } else {
-                int count = this.readyMessagesCount.get(rawMessage);
-                this.readyMessagesCount.put(rawMessage, count + 1);
+                int count = this.readyMessagesCount.get(digest);
+                this.readyMessagesCount.put(digest, count + 1);
             }
 
             //System.out.println("DEBUG: State of the server's READY message count: " + this.readyMessagesCount);
 
-            if(this.readyMessagesCount.get(rawMessage) > 2 * (this.stubs.size() / 3) && this.delivered == false){
+            if(this.readyMessagesCount.get(digest) > 2 * (this.stubs.size() / 3) && this.delivered == false){
 
                 //System.out.println("DEBUG: Server is ready to deliver. " + this.readyMessagesCount);
 
-                this.readyedMessage = message;
+                this.readyedDigest = digest;
                 this.delivered = true;
+                this.deliveredLatch.countDown();
                 return;
             }
 
-            if(this.readyMessagesCount.get(rawMessage) > (this.stubs.size() / 3) && this.sentReady == false){
+            if(this.readyMessagesCount.get(digest) > (this.stubs.size() / 3) && this.sentReady == false){
 
                 //System.out.println("DEBUG: Server initiated amplification step");
 
                 this.sentReady = true;
-                this.readyedMessage = message;
-                for (Map.Entry<PublicKey, ClientAPI> stub : this.stubs.entrySet()){
-                    AsyncSendEcho asyncSendEcho = new AsyncSendEcho(stub.getValue(), this.clientLibrary.getClientPublicKey(), message, AsymmetricCrypto.wrapDigitalSignature(
-                            this.clientLibrary.getClientPublicKey() + AsymmetricCrypto.transformTripletToString(message), this.serverPrivateKey), this.serverPublicKey, true);
-                    new Thread(asyncSendEcho).start();
+                this.readyedDigest = digest;
+                sendReady(digest);
+
+            }
+        }
+    }
+
+    private void sendReady(ByteBuffer digest) {
+
+        ReplicaMessage ready = ReplicaMessage.ready(this.clientLibrary.getClientId(), this.wts, digest.array());
+        for (Map.Entry<Long, ClientAPI> stub : this.stubs.entrySet()){
+
+            //System.out.println("DEBUG: Server will send a READY message...");
+
+            this.peerDispatcher.send(stub.getKey(), stub.getValue(), ready);
+        }
+    }
+
+    // Asked of the peers that sent a READY for the delivered digest, which at least one correct replica did only
+    // after checking the client's signature on the value; whatever comes back must hash to that digest
+    private Triplet<Integer, String, byte[]> fetchValue() {
+
+        List<Long> senders = new ArrayList<>();
+        ByteBuffer digest;
+        synchronized (this) {
+            digest = this.readyedDigest;
+            for (Map.Entry<Long, ByteBuffer> ready : this.readys.entrySet()) {
+                if (digest.equals(ready.getValue()) && ready.getKey() != this.serverId) {
+                    senders.add(ready.getKey());
                 }
+            }
+        }
 
+        for (long sender : senders) {
+            try {
+                ClientAPI stub = this.stubs.get(sender);
+                byte[] mac = this.replicaKeys.authenticate(sender, SignedPayload.fetchValue(this.clientLibrary.getClientId(), this.wts, digest.array()));
+                Triplet<Integer, String, byte[]> value = stub.fetchValue(this.clientLibrary.getClientId(), this.wts, digest.array(), mac, this.serverId);
+
+                if (value != null && digest.equals(digest(value))) {
+                    synchronized (this) {
+                        this.values.put(digest, value);
+                    }
+                    return value;
+                }
+            } catch (Exception e) {
+                System.out.println("WARNING: Could not fetch a delivered value from a peer.");
             }
         }
+
+        return null;
+    }
+
+    static ByteBuffer digest(Triplet<Integer, String, byte[]> value) {
+        return ByteBuffer.wrap(SignedPayload.announcement(value).digest());
     }
 }
@@ -9,33 +9,72 @@ import sec.project.library.ClientAPI;
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 public class GeneralBoard implements Serializable {
 
-    private Map<Integer, Announcement> announcements;
+    private static final long serialVersionUID = -7376958153869935903L;
+
     private NNRegularRegister nNRegularRegister;
 
+    //announcements are persisted in the board's segment
+    private transient AnnouncementStore announcements;
+
     public GeneralBoard(){
-        this.announcements = new HashMap<>();
+        this.announcements = new AnnouncementStore();
         this.nNRegularRegister = new NNRegularRegister(this);
     }
 
+    // Old state files stored the announcements as a map of the board, which now only seeds the store
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+
+        ObjectInputStream.GetField fields = input.readFields();
+        this.nNRegularRegister = (NNRegularRegister) fields.get("nNRegularRegister", null);
+
+        this.announcements = new AnnouncementStore();
+        Map<Integer, Announcement> announcements = (Map<Integer, Announcement>) fields.get("announcements", null);
+        if (announcements != null) {
+            for (Announcement announcement : announcements.values()) {
+                this.announcements.put(announcement);
+            }
+        }
+    }
+
+    public synchronized void attachSegment(AnnouncementSegment segment){
+        this.announcements.attach(segment);
+        this.nNRegularRegister.restoreWts(segment.getMaxWts());
+    }
+
     public synchronized void addAnnouncement(Quartet<Integer, String, String, byte[]> quartet){
         Announcement announcement = new Announcement(quartet, getAnnouncements());
-        this.announcements.put(quartet.getValue0(), announcement);
+        this.announcements.put(announcement);
         System.out.println("\nOn the General Board:"+ announcement.printAnnouncement());
     }
 
+    public synchronized void restoreAnnouncement(Announcement announcement){
+        this.announcements.put(announcement);
+        this.nNRegularRegister.restoreWts(announcement.getWts());
+    }
+
+    public synchronized void restoreAnnouncement(Quartet<Integer, String, String, byte[]> quartet){
+        if (!this.announcements.containsKey(quartet.getValue0())) {
+            this.announcements.put(new Announcement(quartet, getAnnouncements()));
+            this.nNRegularRegister.restoreWts(quartet.getValue0());
+        }
+    }
+
     public ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> getAnnouncementsQuartets(int number){
         ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> result = new ArrayList<>();
 
@@ -49,14 +88,38 @@ public class GeneralBoard implements Serializable {
         }
 
         for (int i = maxWts - aux + 1; i <= maxWts; i++) {
-            result.add(this.announcements.get(i).getQuartet());
+            Announcement announcement = this.announcements.get(i);
+            if (announcement != null) {
+                result.add(announcement.getQuartet());
+            }
+        }
+
+        return result;
+    }
+
+    public ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> getAnnouncementsQuartetsAfter(int wts){
+        ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> result = new ArrayList<>();
+
+        List<Integer> newer = new ArrayList<>();
+        for (int existing : this.announcements.getWtsList()) {
+            if (existing > wts) {
+                newer.add(existing);
+            }
+        }
+        Collections.sort(newer);
+
+        for (int i : newer) {
+            Announcement announcement = this.announcements.get(i);
+            if (announcement != null) {
+                result.add(announcement.getQuartet());
+            }
         }
 
         return result;
     }
 
     public ArrayList<Integer> getExistingReferences(){
-        ArrayList<Integer> result = new ArrayList<>(this.announcements.keySet());
+        ArrayList<Integer> result = new ArrayList<>(this.announcements.getWtsList());
         if (result == null){
             return new ArrayList<>();
         }
@@ -66,21 +129,21 @@ public class GeneralBoard implements Serializable {
 
     public NNRegularRegister getnNRegularRegister() { return this.nNRegularRegister; }
 
-    public Map<Integer, Announcement> getAnnouncements() { return this.announcements; }
+    public AnnouncementStore getAnnouncements() { return this.announcements; }
 
-    public String write(int wts, String message, String clientNumber, byte[] signature, PublicKey clientPublicKey,
-                        byte[] senderServerSignature, PublicKey senderServerPublicKey, PrivateKey serverPrivateKey,
-                        PublicKey serverPublicKey, Map<PublicKey, ClientAPI> stubs) throws NoSuchPaddingException,
+    public String write(int wts, String message, String clientNumber, byte[] signature, long clientId, PublicKey clientPublicKey,
+                        Map<Long, byte[]> senderServerMacs, long senderServerId, ReplicaKeys replicaKeys,
+                        long serverId, Map<Long, ClientAPI> stubs, PeerDispatcher peerDispatcher) throws NoSuchPaddingException,
             UnsupportedEncodingException, IllegalBlockSizeException, BadPaddingException, NoSuchAlgorithmException, InvalidKeyException, Exception {
 
-        return this.nNRegularRegister.write(wts, message, clientNumber, signature, clientPublicKey,
-                senderServerSignature, senderServerPublicKey, serverPrivateKey, serverPublicKey, stubs);
+        return this.nNRegularRegister.write(wts, message, clientNumber, signature, clientId, clientPublicKey,
+                senderServerMacs, senderServerId, replicaKeys, serverId, stubs, peerDispatcher);
     }
 
-    public ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> read(int number, int rid, byte[] signature, PublicKey clientPublicKey) throws NoSuchPaddingException,
-            UnsupportedEncodingException, IllegalBlockSizeException, BadPaddingException, NoSuchAlgorithmException, InvalidKeyException {
+    public ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> read(int number, int rid, byte[] mac, SecretKey sessionKey) throws NoSuchAlgorithmException,
+            InvalidKeyException {
 
-        return this.nNRegularRegister.read(number, rid, signature, clientPublicKey);
+        return this.nNRegularRegister.read(number, rid, mac, sessionKey);
     }
 }
 
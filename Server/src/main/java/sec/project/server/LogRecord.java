@@ -0,0 +1,131 @@
+package sec.project.server;
+
+import org.javatuples.Quartet;
+import org.javatuples.Triplet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+
+public class LogRecord {
+
+    public static final byte REGISTER = 1;
+    public static final byte ANNOUNCEMENT = 2;
+    public static final byte GENERAL_ANNOUNCEMENT = 3;
+
+    private byte type;
+    private PublicKey clientPublicKey;
+    private String clientNumber;
+    private int wts;
+    private String message;
+    private byte[] signature;
+
+    private LogRecord(byte type, PublicKey clientPublicKey, String clientNumber, int wts, String message, byte[] signature){
+        this.type = type;
+        this.clientPublicKey = clientPublicKey;
+        this.clientNumber = clientNumber;
+        this.wts = wts;
+        this.message = message;
+        this.signature = signature;
+    }
+
+    public static LogRecord register(PublicKey clientPublicKey, String clientNumber){
+        return new LogRecord(REGISTER, clientPublicKey, clientNumber, 0, null, null);
+    }
+
+    public static LogRecord announcement(PublicKey clientPublicKey, int wts, String message, byte[] signature){
+        return new LogRecord(ANNOUNCEMENT, clientPublicKey, null, wts, message, signature);
+    }
+
+    public static LogRecord generalAnnouncement(int wts, String message, String clientNumber, byte[] signature){
+        return new LogRecord(GENERAL_ANNOUNCEMENT, null, clientNumber, wts, message, signature);
+    }
+
+    public byte[] toBytes() throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        output.writeByte(this.type);
+
+        switch (this.type) {
+            case REGISTER:
+                StateCodec.writePublicKey(output, this.clientPublicKey);
+                output.writeUTF(this.clientNumber);
+                break;
+
+            case ANNOUNCEMENT:
+                StateCodec.writePublicKey(output, this.clientPublicKey);
+                output.writeInt(this.wts);
+                writeBytes(output, this.message.getBytes("UTF-8"));
+                writeBytes(output, this.signature);
+                break;
+
+            case GENERAL_ANNOUNCEMENT:
+                output.writeInt(this.wts);
+                writeBytes(output, this.message.getBytes("UTF-8"));
+                output.writeUTF(this.clientNumber);
+                writeBytes(output, this.signature);
+                break;
+        }
+
+        output.close();
+        return bytes.toByteArray();
+    }
+
+    public static LogRecord fromBytes(byte[] bytes) throws IOException, GeneralSecurityException {
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte type = input.readByte();
+
+        switch (type) {
+            case REGISTER:
+                PublicKey registeredKey = StateCodec.readPublicKey(input);
+                return register(registeredKey, input.readUTF());
+
+            case ANNOUNCEMENT:
+                PublicKey clientPublicKey = StateCodec.readPublicKey(input);
+                int wts = input.readInt();
+                String message = new String(readBytes(input), "UTF-8");
+                return announcement(clientPublicKey, wts, message, readBytes(input));
+
+            case GENERAL_ANNOUNCEMENT:
+                int generalWts = input.readInt();
+                String generalMessage = new String(readBytes(input), "UTF-8");
+                String clientNumber = input.readUTF();
+                return generalAnnouncement(generalWts, generalMessage, clientNumber, readBytes(input));
+
+            default:
+                throw new IOException("Unknown log record type " + type);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] value) throws IOException {
+        output.writeInt(value.length);
+        output.write(value);
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        byte[] value = new byte[input.readInt()];
+        input.readFully(value);
+        return value;
+    }
+
+    public byte getType() { return this.type; }
+
+    public PublicKey getClientPublicKey() { return this.clientPublicKey; }
+
+    public String getClientNumber() { return this.clientNumber; }
+
+    public Triplet<Integer, String, byte[]> getTriplet() {
+        return new Triplet<>(this.wts, this.message, this.signature);
+    }
+
+    public Quartet<Integer, String, String, byte[]> getQuartet() {
+        return new Quartet<>(this.wts, this.message, this.clientNumber, this.signature);
+    }
+}
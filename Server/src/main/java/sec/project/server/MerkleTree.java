@@ -0,0 +1,131 @@
+package sec.project.server;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Merkle tree over the announcements of one board, keyed by wts. A leaf covers LEAF_SIZE consecutive wts and
+// holds the xor of their announcements' hashes, so adding one only rehashes its path; every inner node hashes
+// its FANOUT children. Node i of level l covers the LEAF_SIZE * FANOUT^l wts that follow i * LEAF_SIZE * FANOUT^l,
+// whatever the size of the board, so two replicas can compare any node without agreeing on a shape first.
+public class MerkleTree {
+
+    public static final int LEAF_SIZE = 64;
+    public static final int FANOUT = 16;
+    public static final int ROOT_LEVEL = 7;
+
+    private List<Map<Integer, byte[]>> levels;
+
+    public MerkleTree(){
+        this.levels = new ArrayList<>();
+        for (int level = 0; level <= ROOT_LEVEL; level++) {
+            this.levels.add(new HashMap<Integer, byte[]>());
+        }
+    }
+
+    public synchronized void add(Announcement announcement){
+        toggle(announcement);
+    }
+
+    // Xor is its own inverse, so a replaced announcement is taken out by adding it again
+    public synchronized void replace(Announcement previous, Announcement announcement){
+        toggle(previous);
+        toggle(announcement);
+    }
+
+    private void toggle(Announcement announcement){
+
+        int wts = announcement.getWts();
+        if (wts < 1) {
+            return;
+        }
+
+        int leaf = (wts - 1) / LEAF_SIZE;
+        byte[] digest = this.levels.get(0).get(leaf);
+        byte[] hash = hash(announcement);
+
+        if (digest == null) {
+            digest = new byte[hash.length];
+        }
+        for (int i = 0; i < hash.length; i++) {
+            digest[i] ^= hash[i];
+        }
+        this.levels.get(0).put(leaf, digest);
+
+        int index = leaf;
+        for (int level = 1; level <= ROOT_LEVEL; level++) {
+            index = index / FANOUT;
+            rehash(level, index);
+        }
+    }
+
+    private void rehash(int level, int index){
+
+        MessageDigest sha = sha256();
+        Map<Integer, byte[]> children = this.levels.get(level - 1);
+
+        for (int child = 0; child < FANOUT; child++) {
+            byte[] digest = children.get(index * FANOUT + child);
+            if (digest != null) {
+                sha.update(ByteBuffer.allocate(4).putInt(child).array());
+                sha.update(digest);
+            }
+        }
+
+        this.levels.get(level).put(index, sha.digest());
+    }
+
+    public synchronized byte[] getDigest(int level, int index){
+        byte[] digest = this.levels.get(level).get(index);
+        return digest == null ? null : digest.clone();
+    }
+
+    public byte[] getRoot(){
+        return getDigest(ROOT_LEVEL, 0);
+    }
+
+    public static int firstWts(int leaf){
+        return leaf * LEAF_SIZE + 1;
+    }
+
+    // Only what the client signed is hashed: the references are resolved by each replica on its own
+    public static byte[] hash(Announcement announcement){
+
+        MessageDigest sha = sha256();
+
+        try {
+            if (announcement.isGeneral()) {
+                sha.update(ByteBuffer.allocate(4).putInt(announcement.getQuartet().getValue0()).array());
+                update(sha, announcement.getQuartet().getValue1().getBytes("UTF-8"));
+                update(sha, announcement.getQuartet().getValue2().getBytes("UTF-8"));
+                update(sha, announcement.getQuartet().getValue3());
+            } else {
+                sha.update(ByteBuffer.allocate(4).putInt(announcement.getTriplet().getValue0()).array());
+                update(sha, announcement.getTriplet().getValue1().getBytes("UTF-8"));
+                update(sha, announcement.getTriplet().getValue2());
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return sha.digest();
+    }
+
+    private static void update(MessageDigest sha, byte[] field){
+        sha.update(ByteBuffer.allocate(4).putInt(field.length).array());
+        sha.update(field);
+    }
+
+    private static MessageDigest sha256(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
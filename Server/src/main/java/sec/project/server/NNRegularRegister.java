@@ -3,42 +3,56 @@ package sec.project.server;
 import org.javatuples.Quartet;
 import org.javatuples.Quintet;
 import org.javatuples.Triplet;
-import sec.project.library.AsymmetricCrypto;
 import sec.project.library.ClientAPI;
+import sec.project.library.KeyRegistry;
+import sec.project.library.ReplicaMessage;
+import sec.project.library.SessionCrypto;
+import sec.project.library.SignedPayload;
+import sec.project.library.VerificationCache;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.*;
 
 public class NNRegularRegister implements Serializable {
 
-    private Quartet<Integer, String, String, byte[]> valueQuartet;
+    private static final long serialVersionUID = -2768406144906551366L;
+
     private int wts;
     private int rid;
     private GeneralBoard generalBoard;
-    private Map<PublicKey, String> ackList;
-    private int acks;
-    private int nThreads;
-    private int byzantineWrite;
-    private boolean commit;
-    private int commits;
-    private int aborts;
-    private Map<PublicKey, String> commitList;
-    private transient Set<PublicKey> expectedResponses;
+
+    //state of the write in progress, never persisted
+    private transient Quartet<Integer, String, String, byte[]> valueQuartet;
+    private transient Map<Long, String> ackList;
+    private transient int acks;
+    private transient int nThreads;
+    private transient int byzantineWrite;
+    private transient boolean commit;
+    private transient int commits;
+    private transient int aborts;
+    private transient Map<Long, String> commitList;
+    private transient Set<Long> expectedResponses;
     private transient Object lock = new Object();
 
     public NNRegularRegister(GeneralBoard generalBoard){
         this.generalBoard = generalBoard;
-        this.valueQuartet = null;
         this.rid = 0;
         this.wts = 0;
+        resetRuntime();
+    }
+
+    private void resetRuntime(){
+        this.valueQuartet = null;
         this.acks = 0;
         this.nThreads = 0;
         this.byzantineWrite = 0;
@@ -49,11 +63,18 @@ public class NNRegularRegister implements Serializable {
         this.ackList = new HashMap<>();
         this.commitList = new HashMap<>();
         this.expectedResponses = new HashSet<>();
+        this.lock = new Object();
     }
 
-    public String write(int wts, String value, String clientNumber, byte[] signature, PublicKey clientPublicKey,
-                        byte[] senderServerSignature, PublicKey senderServerPublicKey , PrivateKey serverPrivateKey,
-                        PublicKey serverPublicKey, Map<PublicKey, ClientAPI> stubs) throws NoSuchPaddingException,
+    // Old state files still carry the runtime fields, which are skipped and start afresh
+    private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+        input.defaultReadObject();
+        resetRuntime();
+    }
+
+    public String write(int wts, String value, String clientNumber, byte[] signature, long clientId, PublicKey clientPublicKey,
+                        Map<Long, byte[]> senderServerMacs, long senderServerId, ReplicaKeys replicaKeys,
+                        long serverId, Map<Long, ClientAPI> stubs, PeerDispatcher peerDispatcher) throws NoSuchPaddingException,
             UnsupportedEncodingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException,
             Exception {
 
@@ -65,27 +86,27 @@ public class NNRegularRegister implements Serializable {
             this.expectedResponses = stubs.keySet();
         }
 
-        if(senderServerPublicKey != null && senderServerSignature != null && !AsymmetricCrypto.validateDigitalSignature(senderServerSignature,
-                senderServerPublicKey, value + wts + clientNumber + new String(signature, "UTF-8"))){
+        if(senderServerId != KeyRegistry.NONE && senderServerMacs != null && !replicaKeys.validate(senderServerMacs,
+                senderServerId, SignedPayload.forward(value, wts, clientNumber, signature))){
 
             return "Invalid server response";
         }
 
-        if (AsymmetricCrypto.validateDigitalSignature(signature, clientPublicKey,
-                value + wts + clientNumber) && wts > this.wts){
+        if (VerificationCache.validateDigitalSignature(signature, clientPublicKey,
+                SignedPayload.postGeneral(value, wts, clientNumber)) && wts > this.wts){
 
             synchronized (this.lock) {
                 if (this.valueQuartet == null) {
 
                     this.valueQuartet = new Quartet<>(wts, value, clientNumber, signature);
                     this.acks++;
-                    byte[] sSSignature = AsymmetricCrypto.wrapDigitalSignature(value + wts + clientNumber + new String(signature, "UTF-8"), serverPrivateKey);
+                    Map<Long, byte[]> serverMacs = replicaKeys.authenticate(SignedPayload.forward(value, wts, clientNumber, signature));
 
-                    for (Map.Entry<PublicKey, ClientAPI> entry : stubs.entrySet()) {
+                    for (Map.Entry<Long, ClientAPI> entry : stubs.entrySet()) {
 
-                        AsyncSendAck sendAck = new AsyncSendAck(entry.getValue(), clientPublicKey, value, wts, signature,
-                                sSSignature, serverPublicKey);
-                        new Thread(sendAck).start();
+                        AsyncSendAck sendAck = new AsyncSendAck(entry.getValue(), clientId, value, wts, signature,
+                                serverMacs, serverId);
+                        peerDispatcher.call(entry.getKey(), sendAck);
 
                     }
 
@@ -99,13 +120,13 @@ public class NNRegularRegister implements Serializable {
                     this.acks = 1;
                     this.nThreads++;
 
-                    byte[] sSSignature = AsymmetricCrypto.wrapDigitalSignature(value + wts + clientNumber + new String(signature, "UTF-8"), serverPrivateKey);
+                    Map<Long, byte[]> serverMacs = replicaKeys.authenticate(SignedPayload.forward(value, wts, clientNumber, signature));
 
-                    for (Map.Entry<PublicKey, ClientAPI> entry : stubs.entrySet()) {
+                    for (Map.Entry<Long, ClientAPI> entry : stubs.entrySet()) {
 
-                        AsyncSendAck sendAck = new AsyncSendAck(entry.getValue(), clientPublicKey, value, wts, signature,
-                                sSSignature, serverPublicKey);
-                        new Thread(sendAck).start();
+                        AsyncSendAck sendAck = new AsyncSendAck(entry.getValue(), clientId, value, wts, signature,
+                                serverMacs, serverId);
+                        peerDispatcher.call(entry.getKey(), sendAck);
 
                     }
                 } else if (this.valueQuartet.getValue0() == wts && !this.valueQuartet.getValue1().equals(value)
@@ -117,8 +138,8 @@ public class NNRegularRegister implements Serializable {
                 } else if (this.valueQuartet.getValue0() == wts
                         && Integer.parseInt(this.valueQuartet.getValue2()) == Integer.parseInt(clientNumber)) {
 
-                    if (stubs.containsKey(senderServerPublicKey) && !ackList.containsKey(senderServerPublicKey)) {
-                        this.ackList.put(senderServerPublicKey, "Ack");
+                    if (stubs.containsKey(senderServerId) && !ackList.containsKey(senderServerId)) {
+                        this.ackList.put(senderServerId, "Ack");
                         this.acks++;
                         return null;
                     }
@@ -140,7 +161,7 @@ public class NNRegularRegister implements Serializable {
                     this.nThreads--;
                     if (this.nThreads == 0) {
                         if(!commit){
-                            tryToCommitInGeneralBoard(null, null, serverPublicKey, serverPrivateKey,stubs);
+                            tryToCommitInGeneralBoard(null, clientId, wts, stubs, peerDispatcher);
                         }
                         this.ackList = new HashMap<>();
                         this.acks = 0;
@@ -151,7 +172,7 @@ public class NNRegularRegister implements Serializable {
                     throw new Exception("Client " + clientNumber + " attempted byzantine write");
                 }
             } else if (clientNumber.equals(this.valueQuartet.getValue2())) {
-                tryToCommitInGeneralBoard(this.valueQuartet, clientPublicKey, serverPublicKey, serverPrivateKey, stubs);
+                tryToCommitInGeneralBoard(this.valueQuartet, clientId, wts, stubs, peerDispatcher);
                 synchronized (this.lock) {
                     this.commit = true;
                     this.wts = wts;
@@ -170,7 +191,7 @@ public class NNRegularRegister implements Serializable {
                     this.nThreads--;
                     if (this.nThreads == 0) {
                         if(!commit){
-                            tryToCommitInGeneralBoard(null, null, serverPublicKey, serverPrivateKey,stubs);
+                            tryToCommitInGeneralBoard(null, clientId, wts, stubs, peerDispatcher);
                         }
                         this.byzantineWrite = 0;
                         this.ackList = new HashMap<>();
@@ -190,8 +211,8 @@ public class NNRegularRegister implements Serializable {
         return "FAIL";
     }
 
-    public void tryToCommitInGeneralBoard(Quartet<Integer, String, String, byte[]> valueQuartet, PublicKey clientPublicKey,
-                                          PublicKey serverPublicKey, PrivateKey serverPrivateKey, Map<PublicKey, ClientAPI> stubs){
+    public void tryToCommitInGeneralBoard(Quartet<Integer, String, String, byte[]> valueQuartet, long clientId, int wts,
+                                          Map<Long, ClientAPI> stubs, PeerDispatcher peerDispatcher){
 
         try {
 
@@ -199,13 +220,11 @@ public class NNRegularRegister implements Serializable {
 
             if(valueQuartet == null){
 
-                byte[] sSSignature = AsymmetricCrypto.wrapDigitalSignature("abort", serverPrivateKey);
+                ReplicaMessage abort = ReplicaMessage.abort(clientId, wts);
 
-                for (Map.Entry<PublicKey, ClientAPI> entry : stubs.entrySet()) {
+                for (Map.Entry<Long, ClientAPI> entry : stubs.entrySet()) {
 
-                    AsyncReadyToCommit readyToCommit = new AsyncReadyToCommit(entry.getValue(), clientPublicKey, null,
-                            sSSignature, serverPublicKey);
-                    new Thread(readyToCommit).start();
+                    peerDispatcher.send(entry.getKey(), entry.getValue(), abort);
 
                 }
 
@@ -215,14 +234,11 @@ public class NNRegularRegister implements Serializable {
 
             } else {
 
-                byte[] sSSignature = AsymmetricCrypto.wrapDigitalSignature(valueQuartet.getValue0() + valueQuartet.getValue1()
-                        + valueQuartet.getValue2() + new String(valueQuartet.getValue3(), "UTF-8"), serverPrivateKey);
+                ReplicaMessage commit = ReplicaMessage.commit(clientId, valueQuartet);
 
-                for (Map.Entry<PublicKey, ClientAPI> entry : stubs.entrySet()) {
+                for (Map.Entry<Long, ClientAPI> entry : stubs.entrySet()) {
 
-                    AsyncReadyToCommit readyToCommit = new AsyncReadyToCommit(entry.getValue(), clientPublicKey, valueQuartet,
-                            sSSignature, serverPublicKey);
-                    new Thread(readyToCommit).start();
+                    peerDispatcher.send(entry.getKey(), entry.getValue(), commit);
 
                 }
 
@@ -248,15 +264,13 @@ public class NNRegularRegister implements Serializable {
 
     }
 
-    public void addCommitRequest(PublicKey clientPublicKey, Quartet<Integer, String, String, byte[]> valueQuartet,
-                                 byte[] sSSignature, PublicKey serverPublicKey){
+    // The vote of another replica, whose batch was already authenticated
+    public void addCommitRequest(PublicKey clientPublicKey, int wts, Quartet<Integer, String, String, byte[]> valueQuartet, long serverId){
 
         try {
 
-            if (valueQuartet != null && AsymmetricCrypto.validateDigitalSignature(sSSignature, serverPublicKey, valueQuartet.getValue0() +
-                    valueQuartet.getValue1() + valueQuartet.getValue2() + new String(valueQuartet.getValue3(), "UTF-8"))
-                    && AsymmetricCrypto.validateDigitalSignature(valueQuartet.getValue3(), clientPublicKey, valueQuartet.getValue1()
-                    + valueQuartet.getValue0() + valueQuartet.getValue2()) && this.expectedResponses.contains(serverPublicKey)) {
+            if (valueQuartet != null && VerificationCache.validateDigitalSignature(valueQuartet.getValue3(), clientPublicKey, SignedPayload.postGeneral(
+                    valueQuartet.getValue1(), valueQuartet.getValue0(), valueQuartet.getValue2())) && this.expectedResponses.contains(serverId)) {
 
                 if(this.valueQuartet != null && this.valueQuartet.getValue0().intValue() == valueQuartet.getValue0().intValue()
                         && this.valueQuartet.getValue1().equals(valueQuartet.getValue1())
@@ -272,10 +286,11 @@ public class NNRegularRegister implements Serializable {
                     }
                 }
 
-            } else if(AsymmetricCrypto.validateDigitalSignature(sSSignature,serverPublicKey,"abort")
-                    && this.expectedResponses.contains(serverPublicKey)){
+            } else if(valueQuartet == null && this.expectedResponses.contains(serverId)){
 
-                if(true){
+                //an abort only counts against the write it names
+                Quartet<Integer, String, String, byte[]> current = this.valueQuartet;
+                if(current == null || current.getValue0() == wts){
                     synchronized (this.lock){
                         this.aborts++;
                     }
@@ -288,11 +303,11 @@ public class NNRegularRegister implements Serializable {
 
     }
 
-    public ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> read(int number, int rid, byte[] signature, PublicKey clientPublicKey) throws NoSuchPaddingException,
-            UnsupportedEncodingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
+    public ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> read(int number, int rid, byte[] mac, SecretKey sessionKey) throws NoSuchAlgorithmException,
+            InvalidKeyException {
 
 
-        if (AsymmetricCrypto.validateDigitalSignature(signature, clientPublicKey,"" + number + rid)){
+        if (SessionCrypto.validateMac(mac, SignedPayload.readGeneral(number, rid), sessionKey)){
 
             return this.generalBoard.getAnnouncementsQuartets(number);
         }
@@ -302,6 +317,12 @@ public class NNRegularRegister implements Serializable {
 
     public int getWts() { return this.wts; }
 
+    public void restoreWts(int wts) {
+        if (wts > this.wts) {
+            this.wts = wts;
+        }
+    }
+
     public int getRid() { return this.rid; }
 
     public Quartet<Integer, String, String, byte[]> getValueQuartet() { return this.valueQuartet; }
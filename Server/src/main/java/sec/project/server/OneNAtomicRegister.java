@@ -3,54 +3,53 @@ package sec.project.server;
 import org.javatuples.Quartet;
 import org.javatuples.Triplet;
 import sec.project.library.AsymmetricCrypto;
+import sec.project.library.SessionCrypto;
+import sec.project.library.SignedPayload;
+import sec.project.library.VerificationCache;
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.rmi.RemoteException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.PrivateKey;
-import java.security.PublicKey;
 import java.util.ArrayList;
 
 public class OneNAtomicRegister implements Serializable {
 
-    private Triplet <Integer, String, byte[]> valueTriplet;
-    private int wts;
+    private static final long serialVersionUID = -7523948755405244838L;
+
+    private volatile int wts;
     private int rid;
     private ClientLibrary clientLibrary;
 
     //Init()
     public OneNAtomicRegister(ClientLibrary clientLibrary){
         this.clientLibrary = clientLibrary;
-        this.valueTriplet = new Triplet<>(0, null, null);
         this.rid = 0;
         this.wts = 0;
     }
 
-    public String write(int wts, String value, byte[] signature, PrivateKey serverPrivateKey, PublicKey serverPublicKey) throws NoSuchPaddingException,
+    public String write(int wts, String value, byte[] signature, DoubleEchoBroadcaster broadcaster) throws NoSuchPaddingException,
             UnsupportedEncodingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException,
             InvalidKeyException, RemoteException, InterruptedException {
 
         String result = "BADSIGNATURE";
-        if (AsymmetricCrypto.validateDigitalSignature(signature, this.clientLibrary.getClientPublicKey(), value + wts)) {
+        if (VerificationCache.validateDigitalSignature(signature, this.clientLibrary.getClientPublicKey(), SignedPayload.post(value, wts))) {
 
             result = "IGNORED";
 
-            if (!this.clientLibrary.getAnnouncements().containsKey(wts)) {
+            if (broadcaster != null && !this.clientLibrary.getAnnouncements().containsKey(wts)) {
 
                 result = "BADBROADCAST";
 
-                Triplet<Integer, String, byte[]> auxTriplet = new Triplet<>(wts, value, signature);
-                this.valueTriplet = this.clientLibrary.getDoubleEchoBroadcaster().write(auxTriplet, serverPrivateKey, serverPublicKey);
+                //several posts of the client can be in flight, each keeps the value its own round delivered
+                Triplet<Integer, String, byte[]> delivered = broadcaster.write(new Triplet<>(wts, value, signature));
 
-                if (this.valueTriplet != null && this.valueTriplet.getValue1() != null && this.valueTriplet.getValue2() != null) {
-                    this.clientLibrary.addAnnouncement(this.valueTriplet);
-                    if (wts > this.wts) {
-                        this.wts = wts;
-                    }
+                if (delivered != null && delivered.getValue1() != null && delivered.getValue2() != null) {
+                    this.clientLibrary.deliverAnnouncement(delivered);
                     return "ACK";
                 }
             }
@@ -59,10 +58,10 @@ public class OneNAtomicRegister implements Serializable {
         return result;
     }
 
-    public ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> read(int number, int rid, byte[] signature, PublicKey clientPublicKey) throws NoSuchPaddingException,
-            UnsupportedEncodingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
+    public ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> read(int number, int rid, byte[] mac, SecretKey sessionKey) throws NoSuchAlgorithmException,
+            InvalidKeyException {
 
-        if (AsymmetricCrypto.validateDigitalSignature(signature, clientPublicKey,this.clientLibrary.getClientPublicKey().toString() + number + rid)){
+        if (SessionCrypto.validateMac(mac, SignedPayload.read(this.clientLibrary.getClientId(), number, rid), sessionKey)){
 
             return this.clientLibrary.getAnnouncementsTriplets(number);
         }
@@ -82,8 +81,11 @@ public class OneNAtomicRegister implements Serializable {
         return this.wts;
     }
 
-    public Triplet<Integer, String, byte[]> getValueTriplet() {
-        return this.valueTriplet;
+    // Called under the board's lock once the server is up, so the wts only moves forward
+    public void restoreWts(int wts) {
+        if (wts > this.wts) {
+            this.wts = wts;
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,337 @@
+package sec.project.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class OperationLog {
+
+    private static final long MAX_WAIT_MILLIS = Long.getLong("dpas.log.maxWaitMillis", 2);
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("dpas.log.maxBatchSize", 256);
+
+    private File directory;
+    private String segmentPrefix;
+    private int generation;
+    private int recordCount;
+    private FileOutputStream file;
+    private DataOutputStream output;
+    private final Object fileLock = new Object();
+
+    private List<PendingRecord> pending;
+    private boolean closed;
+    private Thread flusher;
+
+    private long flushes;
+    private long flushedRecords;
+    private int largestBatch;
+    private long totalFlushNanos;
+    private long largestFlushNanos;
+
+    public OperationLog(File directory, int serverPort, int generation) throws IOException {
+        this.directory = directory;
+        this.segmentPrefix = "log" + serverPort + "_";
+        this.generation = generation;
+        this.pending = new ArrayList<>();
+        this.closed = false;
+        open();
+
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "log-flusher-" + serverPort);
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // Every committed operation is queued for the flusher thread, which writes and syncs whole batches.
+    // The caller only returns once the batch holding its record is durable.
+    public void append(LogRecord record) throws IOException {
+        appendAll(Collections.singletonList(record));
+    }
+
+    // Bulk installs queue all their records at once, so they are synced together
+    public void appendAll(List<LogRecord> records) throws IOException {
+
+        List<PendingRecord> pendingRecords = new ArrayList<>(records.size());
+        for (LogRecord record : records) {
+            pendingRecords.add(new PendingRecord(record.toBytes()));
+        }
+
+        synchronized (this) {
+
+            if (this.closed) {
+                throw new IOException("The operation log is closed");
+            }
+
+            this.pending.addAll(pendingRecords);
+            notifyAll();
+
+            try {
+                for (PendingRecord pendingRecord : pendingRecords) {
+                    while (!pendingRecord.done) {
+                        wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the log to be synced");
+            }
+        }
+
+        for (PendingRecord pendingRecord : pendingRecords) {
+            if (pendingRecord.failure != null) {
+                throw pendingRecord.failure;
+            }
+        }
+    }
+
+    // Closes the current segment and starts a new one, returning the generation new records will go to
+    public int roll() throws IOException {
+
+        synchronized (this.fileLock) {
+
+            flushPending();
+
+            this.output.close();
+            synchronized (this) {
+                this.generation++;
+            }
+            open();
+
+            return this.generation;
+        }
+    }
+
+    public void close() throws IOException {
+
+        synchronized (this) {
+            this.closed = true;
+            notifyAll();
+        }
+
+        synchronized (this.fileLock) {
+            flushPending();
+            this.output.close();
+        }
+    }
+
+    private void flushLoop() {
+
+        try {
+            while (true) {
+
+                synchronized (this) {
+
+                    while (this.pending.isEmpty() && !this.closed) {
+                        wait();
+                    }
+
+                    if (this.closed) {
+                        return;
+                    }
+
+                    //group commit window: give concurrent posts a chance to join this batch
+                    long deadline = System.currentTimeMillis() + MAX_WAIT_MILLIS;
+                    long remaining = MAX_WAIT_MILLIS;
+                    while (this.pending.size() < MAX_BATCH_SIZE && remaining > 0 && !this.closed) {
+                        wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                }
+
+                synchronized (this.fileLock) {
+                    flushPending();
+                }
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Must be called holding fileLock
+    private void flushPending() {
+
+        List<PendingRecord> batch;
+        synchronized (this) {
+            if (this.pending.isEmpty()) {
+                return;
+            }
+            batch = this.pending;
+            this.pending = new ArrayList<>();
+        }
+
+        long start = System.nanoTime();
+        IOException failure = null;
+
+        try {
+            for (PendingRecord pendingRecord : batch) {
+                StateCodec.writeRecord(this.output, pendingRecord.bytes);
+            }
+            this.output.flush();
+            this.file.getFD().sync();
+
+        } catch (IOException e) {
+            failure = e;
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        synchronized (this) {
+
+            for (PendingRecord pendingRecord : batch) {
+                pendingRecord.failure = failure;
+                pendingRecord.done = true;
+            }
+
+            if (failure == null) {
+                this.recordCount += batch.size();
+            }
+
+            this.flushes++;
+            this.flushedRecords += batch.size();
+            this.totalFlushNanos += elapsed;
+            this.largestBatch = Math.max(this.largestBatch, batch.size());
+            this.largestFlushNanos = Math.max(this.largestFlushNanos, elapsed);
+
+            notifyAll();
+        }
+    }
+
+    public void deleteSegmentsBefore(int generation) {
+
+        for (int segment : listSegments(this.directory, this.segmentPrefix)) {
+            if (segment < generation) {
+                if (!segmentFile(segment).delete()) {
+                    System.out.println("WARNING: Unable to delete log segment " + segment + ".");
+                }
+            }
+        }
+    }
+
+    public synchronized int getGeneration() { return this.generation; }
+
+    public synchronized int getRecordCount() { return this.recordCount; }
+
+    public synchronized long getFlushCount() { return this.flushes; }
+
+    public synchronized long getFlushedRecordCount() { return this.flushedRecords; }
+
+    public synchronized int getLargestBatchSize() { return this.largestBatch; }
+
+    public synchronized double getAverageBatchSize() {
+        return this.flushes == 0 ? 0 : (double) this.flushedRecords / this.flushes;
+    }
+
+    public synchronized double getAverageFlushLatencyMillis() {
+        return this.flushes == 0 ? 0 : this.totalFlushNanos / 1000000.0 / this.flushes;
+    }
+
+    public synchronized double getLargestFlushLatencyMillis() { return this.largestFlushNanos / 1000000.0; }
+
+    public synchronized String getStatistics() {
+        return "flushes: " + this.flushes + ", records: " + this.flushedRecords
+                + ", average batch: " + String.format("%.2f", getAverageBatchSize()) + ", largest batch: " + this.largestBatch
+                + ", average flush: " + String.format("%.3f", getAverageFlushLatencyMillis()) + " ms"
+                + ", slowest flush: " + String.format("%.3f", getLargestFlushLatencyMillis()) + " ms"
+                + " (max wait " + MAX_WAIT_MILLIS + " ms, max batch " + MAX_BATCH_SIZE + ")";
+    }
+
+    private void open() throws IOException {
+        this.file = new FileOutputStream(segmentFile(this.generation), true);
+        this.output = new DataOutputStream(new BufferedOutputStream(this.file));
+        synchronized (this) {
+            this.recordCount = 0;
+        }
+    }
+
+    private File segmentFile(int generation) {
+        return new File(this.directory, this.segmentPrefix + generation + ".txt");
+    }
+
+    private static class PendingRecord {
+        private byte[] bytes;
+        private boolean done;
+        private IOException failure;
+
+        private PendingRecord(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    // Reads every record of every segment from the given generation on, in order. A torn or corrupted
+    // record ends its segment, since nothing after it could have been acknowledged.
+    public static List<LogRecord> readSegments(File directory, int serverPort, int fromGeneration) {
+
+        String segmentPrefix = "log" + serverPort + "_";
+        List<LogRecord> records = new ArrayList<>();
+
+        for (int segment : listSegments(directory, segmentPrefix)) {
+
+            if (segment < fromGeneration) {
+                continue;
+            }
+
+            File segmentFile = new File(directory, segmentPrefix + segment + ".txt");
+
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile)))) {
+
+                while (true) {
+                    records.add(LogRecord.fromBytes(StateCodec.readRecord(input)));
+                }
+
+            } catch (EOFException e) {
+                // end of segment
+            } catch (Exception e) {
+                System.out.println("WARNING: Log segment " + segment + " is corrupted, ignoring its tail.");
+            }
+        }
+
+        return records;
+    }
+
+    public static int lastGeneration(File directory, int serverPort) {
+
+        List<Integer> segments = listSegments(directory, "log" + serverPort + "_");
+        if (segments.isEmpty()) {
+            return 0;
+        }
+
+        return segments.get(segments.size() - 1);
+    }
+
+    private static List<Integer> listSegments(File directory, String segmentPrefix) {
+
+        List<Integer> segments = new ArrayList<>();
+        String[] names = directory.list();
+
+        if (names == null) {
+            return segments;
+        }
+
+        for (String name : names) {
+            if (name.startsWith(segmentPrefix) && name.endsWith(".txt")) {
+                try {
+                    segments.add(Integer.parseInt(name.substring(segmentPrefix.length(), name.length() - 4)));
+                } catch (NumberFormatException e) {
+                    // not a log segment
+                }
+            }
+        }
+
+        Collections.sort(segments);
+        return segments;
+    }
+}
@@ -0,0 +1,243 @@
+package sec.project.server;
+
+import sec.project.library.ClientAPI;
+import sec.project.library.ReplicaMessage;
+import sec.project.library.SignedPayload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Messages to other replicas leave through one queue and one thread per peer, instead of a new thread per message.
+// A peer gets its messages in the order they were queued. A peer that falls behind only fills its own queue
+// (dpas.dispatch.queueSize messages); past that, what is sent to it is dropped and counted, as if it were down,
+// so it never holds up the other peers or piles up threads.
+//
+// ECHO, READY and commit messages are not sent one by one: those queued for a peer within dpas.dispatch.batchMicros
+// of the first leave together, up to dpas.dispatch.batchSize of them, in one deliverBatch call with one MAC.
+//
+// Calls that block until the peer answers, such as a forwarded postGeneral that the peer may only answer once its
+// own write of the value commits, never run on a peer's message thread, or the commit messages queued behind them
+// could not leave. They run on a shared pool of at most dpas.dispatch.maxCalls threads, and are dropped past that.
+public class PeerDispatcher {
+
+    private static final int QUEUE_SIZE = Integer.getInteger("dpas.dispatch.queueSize", 1024);
+    private static final int BATCH_SIZE = Integer.getInteger("dpas.dispatch.batchSize", 64);
+    private static final long BATCH_MICROS = Long.getLong("dpas.dispatch.batchMicros", 200);
+    private static final int MAX_CALLS = Integer.getInteger("dpas.dispatch.maxCalls", 64);
+
+    private int serverPort;
+    private ReplicaKeys replicaKeys;
+    private int batchSize;
+    private long batchNanos;
+    private ConcurrentMap<Long, Peer> peers;
+    private ThreadPoolExecutor calls;
+
+    public PeerDispatcher(int serverPort, ReplicaKeys replicaKeys){
+        this(serverPort, replicaKeys, BATCH_SIZE, BATCH_MICROS);
+    }
+
+    public PeerDispatcher(final int serverPort, ReplicaKeys replicaKeys, int batchSize, long batchMicros){
+        this.serverPort = serverPort;
+        this.replicaKeys = replicaKeys;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchNanos = TimeUnit.MICROSECONDS.toNanos(batchMicros);
+        this.peers = new ConcurrentHashMap<>();
+
+        final AtomicInteger count = new AtomicInteger();
+        this.calls = new ThreadPoolExecutor(0, MAX_CALLS, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "call-" + serverPort + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    // A request the peer answers, unordered with respect to everything else sent to it
+    public void call(long peerId, Runnable call){
+
+        Peer peer = peer(peerId);
+        try {
+            this.calls.execute(call);
+            peer.calls.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            peer.drop();
+        }
+    }
+
+    // Goes out with the next batch to that peer
+    public void send(long peerId, ClientAPI stub, ReplicaMessage message){
+        peer(peerId).batch(stub, message);
+    }
+
+    public void shutdown(){
+        for (Peer peer : this.peers.values()) {
+            peer.executor.shutdownNow();
+        }
+        this.calls.shutdownNow();
+    }
+
+    public String getStatistics(){
+
+        StringBuilder statistics = new StringBuilder();
+        for (Map.Entry<Long, Peer> peer : this.peers.entrySet()) {
+            Peer stats = peer.getValue();
+            long sent = Math.max(1, stats.sent.get());
+            statistics.append("\npeer " + Long.toHexString(peer.getKey()) + ": sent " + stats.sent.get() + ", calls " + stats.calls.get()
+                    + ", dropped " + stats.dropped.get()
+                    + ", queued now " + stats.executor.getQueue().size() + ", max queued " + stats.maxQueued.get()
+                    + ", mean wait " + String.format("%.2f", stats.waitNanos.get() / sent / 1000000.0) + " ms"
+                    + ", mean send " + String.format("%.2f", stats.sendNanos.get() / sent / 1000000.0) + " ms"
+                    + ", " + stats.batches.get() + " batches of " + String.format("%.1f", stats.batched.get() / (double) Math.max(1, stats.batches.get())));
+        }
+
+        return statistics.length() == 0 ? "nothing sent" : statistics.toString();
+    }
+
+    public double getMeanBatchSize(){
+
+        long batches = 0;
+        long batched = 0;
+        for (Peer peer : this.peers.values()) {
+            batches += peer.batches.get();
+            batched += peer.batched.get();
+        }
+        return batched / (double) Math.max(1, batches);
+    }
+
+    private Peer peer(long peerId){
+
+        Peer peer = this.peers.get(peerId);
+        if (peer == null) {
+            //no thread is started until the first message, so a peer created twice costs nothing
+            Peer created = new Peer(peerId);
+            peer = this.peers.putIfAbsent(peerId, created);
+            if (peer == null) {
+                peer = created;
+            }
+        }
+        return peer;
+    }
+
+    private class Peer {
+
+        private long peerId;
+        private ThreadPoolExecutor executor;
+        private BlockingQueue<ReplicaMessage> pending;
+        private AtomicBoolean flushing = new AtomicBoolean();
+        private volatile ClientAPI stub;
+
+        private AtomicLong sent = new AtomicLong();
+        private AtomicLong calls = new AtomicLong();
+        private AtomicLong dropped = new AtomicLong();
+        private AtomicLong maxQueued = new AtomicLong();
+        private AtomicLong waitNanos = new AtomicLong();
+        private AtomicLong sendNanos = new AtomicLong();
+        private AtomicLong batches = new AtomicLong();
+        private AtomicLong batched = new AtomicLong();
+
+        private Peer(final long peerId){
+
+            this.peerId = peerId;
+            this.pending = new ArrayBlockingQueue<>(QUEUE_SIZE);
+            this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "dispatch-" + serverPort + "-" + Long.toHexString(peerId));
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+
+        private boolean send(final Runnable message){
+
+            final long queued = System.nanoTime();
+            try {
+                this.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long start = System.nanoTime();
+                        message.run();
+                        waitNanos.addAndGet(start - queued);
+                        sendNanos.addAndGet(System.nanoTime() - start);
+                        sent.incrementAndGet();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                drop();
+                return false;
+            }
+
+            long depth = this.executor.getQueue().size();
+            if (depth > this.maxQueued.get()) {
+                this.maxQueued.set(depth);
+            }
+            return true;
+        }
+
+        private void batch(ClientAPI stub, ReplicaMessage message){
+
+            this.stub = stub;
+            if (!this.pending.offer(message)) {
+                drop();
+                return;
+            }
+
+            //one flush in the queue at a time picks up everything queued for the peer until it runs
+            if (this.flushing.compareAndSet(false, true) && !send(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            })) {
+                this.flushing.set(false);
+            }
+        }
+
+        private void flush(){
+
+            //give the messages of other writes a moment to join, unless a full batch is already waiting
+            if (batchNanos > 0 && this.pending.size() < batchSize) {
+                LockSupport.parkNanos(batchNanos);
+            }
+            this.flushing.set(false);
+
+            List<ReplicaMessage> messages = new ArrayList<>();
+            while (this.pending.drainTo(messages, batchSize) > 0) {
+                try {
+                    this.stub.deliverBatch(messages, replicaKeys.authenticate(this.peerId, SignedPayload.batch(messages)),
+                            replicaKeys.getServerId());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                this.batches.incrementAndGet();
+                this.batched.addAndGet(messages.size());
+                messages = new ArrayList<>();
+            }
+        }
+
+        private void drop(){
+            if (this.dropped.incrementAndGet() == 1) {
+                System.out.println("WARNING: A peer is not keeping up, messages to it are being dropped.");
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package sec.project.server;
+
+import sec.project.library.AsymmetricCrypto;
+import sec.project.library.ClientAPI;
+import sec.project.library.KeyRegistry;
+import sec.project.library.ReplicaKey;
+import sec.project.library.SessionCrypto;
+import sec.project.library.SignedPayload;
+
+import javax.crypto.SecretKey;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Pairwise MAC keys between replicas. Every replica picks, once per run, the key it authenticates its messages
+// to each peer with, and hands it over at startup wrapped with the peer's public key and signed; the peer
+// answers with the key it uses the other way. A message to all replicas then carries a vector with one MAC
+// per receiver, keyed by its fingerprint and computed once by the sender, and each receiver checks only its own entry.
+// Every offer carries an epoch drawn from the same clock-seeded counter as the nonces, and a peer's key is only
+// replaced by an offer newer than the one installed, so replaying an offer from an earlier run cannot cut it off.
+public class ReplicaKeys {
+
+    private PublicKey serverPublicKey;
+    private PrivateKey serverPrivateKey;
+    private long serverId;
+
+    //keys this replica authenticates with, by receiver, and keys peers authenticate with, by sender
+    private Map<Long, SecretKey> outgoing;
+    private Map<Long, SecretKey> incoming;
+
+    //requests to a peer carry a nonce that only grows, seeded from the clock so it keeps growing across restarts
+    private AtomicLong nonces;
+    private Map<Long, Long> lastNonces;
+    private Map<Long, Long> epochs;
+
+    public ReplicaKeys(PublicKey serverPublicKey, PrivateKey serverPrivateKey) throws NoSuchAlgorithmException {
+        this.serverPublicKey = serverPublicKey;
+        this.serverPrivateKey = serverPrivateKey;
+        this.serverId = KeyRegistry.fingerprint(serverPublicKey);
+        this.outgoing = new ConcurrentHashMap<>();
+        this.incoming = new ConcurrentHashMap<>();
+        this.nonces = new AtomicLong(TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()));
+        this.lastNonces = new HashMap<>();
+        this.epochs = new HashMap<>();
+
+        //messages a replica sends to itself go through the same checks
+        SecretKey own = SessionCrypto.generateKey();
+        this.outgoing.put(this.serverId, own);
+        this.incoming.put(this.serverId, own);
+    }
+
+    public PublicKey getServerPublicKey() { return this.serverPublicKey; }
+
+    public long getServerId() { return this.serverId; }
+
+    public void exchange(PublicKey peerPublicKey, ClientAPI stub) throws Exception {
+        ReplicaKey answer = stub.exchangeReplicaKey(wrap(outgoingKey(peerPublicKey), peerPublicKey), this.serverPublicKey);
+        install(answer, peerPublicKey);
+    }
+
+    // A peer that (re)started offers its key, which replaces whatever it used before
+    public ReplicaKey accept(ReplicaKey offer, PublicKey peerPublicKey) throws Exception {
+        install(offer, peerPublicKey);
+        return wrap(outgoingKey(peerPublicKey), peerPublicKey);
+    }
+
+    public Map<Long, byte[]> authenticate(SignedPayload payload) throws NoSuchAlgorithmException, InvalidKeyException {
+        Map<Long, byte[]> macs = new HashMap<>();
+        for (Map.Entry<Long, SecretKey> receiver : this.outgoing.entrySet()) {
+            macs.put(receiver.getKey(), SessionCrypto.mac(payload, receiver.getValue()));
+        }
+        return macs;
+    }
+
+    public boolean validate(Map<Long, byte[]> macs, long senderId, SignedPayload payload) throws NoSuchAlgorithmException,
+            InvalidKeyException {
+        return macs != null && SessionCrypto.validateMac(macs.get(this.serverId), payload, this.incoming.get(senderId));
+    }
+
+    // For a message to a single peer, such as a batch
+    public byte[] authenticate(long receiverId, SignedPayload payload) throws NoSuchAlgorithmException, InvalidKeyException {
+        return SessionCrypto.mac(payload, this.outgoing.get(receiverId));
+    }
+
+    public boolean validate(byte[] mac, long senderId, SignedPayload payload) throws NoSuchAlgorithmException, InvalidKeyException {
+        return SessionCrypto.validateMac(mac, payload, this.incoming.get(senderId));
+    }
+
+    public long nonce() { return this.nonces.incrementAndGet(); }
+
+    // Only asked once the request carrying the nonce is authenticated, so a replayed request is refused while a
+    // forged one cannot move the sender's nonce forward
+    public synchronized boolean fresh(long senderId, long nonce) {
+        Long last = this.lastNonces.get(senderId);
+        if (last != null && nonce <= last) {
+            return false;
+        }
+        this.lastNonces.put(senderId, nonce);
+        return true;
+    }
+
+    // Picked once: a peer that offers its key while this replica offers its own gets the same one back
+    private synchronized SecretKey outgoingKey(PublicKey peerPublicKey) throws NoSuchAlgorithmException {
+        long peerId = KeyRegistry.fingerprint(peerPublicKey);
+        SecretKey key = this.outgoing.get(peerId);
+        if (key == null) {
+            key = SessionCrypto.generateKey();
+            this.outgoing.put(peerId, key);
+        }
+        return key;
+    }
+
+    // A peer keeps one key per run, so an older offer carrying the installed key, as when two replicas offer at once,
+    // changes nothing; one carrying another key is a replay from an earlier run
+    private synchronized void install(ReplicaKey replicaKey, PublicKey peerPublicKey) throws Exception {
+
+        SecretKey key = unwrap(replicaKey, peerPublicKey);
+        long peerId = KeyRegistry.fingerprint(peerPublicKey);
+        Long epoch = this.epochs.get(peerId);
+
+        if (epoch == null || replicaKey.getEpoch() > epoch) {
+            this.incoming.put(peerId, key);
+            this.epochs.put(peerId, replicaKey.getEpoch());
+        } else if (!Arrays.equals(key.getEncoded(), this.incoming.get(peerId).getEncoded())) {
+            throw new Exception("Replica key offer older than the one installed");
+        }
+    }
+
+    private ReplicaKey wrap(SecretKey key, PublicKey peerPublicKey) throws Exception {
+        byte[] wrappedKey = SessionCrypto.wrapKey(key, peerPublicKey);
+        long epoch = nonce();
+        return new ReplicaKey(wrappedKey, epoch, AsymmetricCrypto.wrapDigitalSignature(SignedPayload.replicaKey(peerPublicKey, wrappedKey, epoch),
+                this.serverPrivateKey));
+    }
+
+    private SecretKey unwrap(ReplicaKey replicaKey, PublicKey peerPublicKey) throws Exception {
+        if (replicaKey == null || !AsymmetricCrypto.validateDigitalSignature(replicaKey.getSignature(), peerPublicKey,
+                SignedPayload.replicaKey(this.serverPublicKey, replicaKey.getWrappedKey(), replicaKey.getEpoch()))) {
+            throw new Exception("Replica key not signed by the replica that offered it");
+        }
+        return SessionCrypto.unwrapKey(replicaKey.getWrappedKey(), this.serverPrivateKey);
+    }
+}
@@ -4,38 +4,79 @@ import org.javatuples.Quartet;
 import org.javatuples.Quintet;
 import org.javatuples.Triplet;
 import sec.project.library.Acknowledge;
+import sec.project.library.AnnouncementTree;
 import sec.project.library.AsymmetricCrypto;
 import sec.project.library.ClientAPI;
+import sec.project.library.KeyRegistry;
 import sec.project.library.ReadView;
+import sec.project.library.ReplicaKey;
+import sec.project.library.ReplicaMessage;
+import sec.project.library.SessionCrypto;
+import sec.project.library.SignedPayload;
+import sec.project.library.StateTransfer;
+import sec.project.library.VerificationCache;
+
+import javax.crypto.SecretKey;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.rmi.RemoteException;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Server implements ClientAPI {
 
-    private static Map<PublicKey, ClientAPI> stubs;
+    private Map<PublicKey, ClientAPI> stubs;
+    private KeyRegistry<ClientAPI> replicas;
     private int serverPort;
     private KeyStore serverKeyStore;
     private PrivateKey serverPrivateKey;
     private PublicKey serverPublicKey;
     private Map<PublicKey, ClientLibrary> clientList;
+    private KeyRegistry<ClientLibrary> clientIds;
     private GeneralBoard generalBoard;
-    private boolean isBeingSaved;
+    private OperationLog operationLog;
+    private Snapshotter snapshotter;
+    private AntiEntropy antiEntropy;
+    private ShardStore shardStore;
+    private Set<PublicKey> dirtyClients;
+    private AtomicBoolean generalBoardDirty;
+    private Map<Long, SecretKey> sessionKeys;
+    private Map<Long, Long> loginNonces;
+    private ReplicaKeys replicaKeys;
+    private CryptoWorkers cryptoWorkers;
+    private PeerDispatcher peerDispatcher;
+    private BroadcastInstances broadcasts;
 
     public Server (int serverPort){
 
         this.serverPort = serverPort;
-        this.isBeingSaved = false;
         this.stubs = new HashMap<>();
+        this.replicas = new KeyRegistry<>();
+        this.clientIds = new KeyRegistry<>();
+        this.shardStore = new ShardStore(new File("data/state" + serverPort));
+        this.dirtyClients = Collections.newSetFromMap(new ConcurrentHashMap<PublicKey, Boolean>());
+        this.generalBoardDirty = new AtomicBoolean(false);
+        this.sessionKeys = new ConcurrentHashMap<>();
+        this.loginNonces = new HashMap<>();
+        this.cryptoWorkers = new CryptoWorkers(serverPort);
 
         try {
 
-            loadState();
-
             this.serverKeyStore = AsymmetricCrypto.getKeyStore("data/keys/server" + serverPort + "_keystore.jks", "server" + serverPort + "password");
             this.serverPrivateKey = AsymmetricCrypto.getPrivateKey(this.serverKeyStore, "server" + serverPort + "password", "server" + serverPort);
             this.serverPublicKey = AsymmetricCrypto.getPublicKeyFromCert("data/keys/server" + serverPort + "_certificate.crt");
+            this.replicaKeys = new ReplicaKeys(this.serverPublicKey, this.serverPrivateKey);
+            this.peerDispatcher = new PeerDispatcher(serverPort, this.replicaKeys);
+            this.broadcasts = new BroadcastInstances(this.replicaKeys, this.peerDispatcher);
+
+            loadState();
+
+        } catch (IOException e) {
+
+            //a board that cannot be read must not be served, nor overwritten by the next snapshot
+            throw new IllegalStateException("The server registered in port " + serverPort + " could not load its state", e);
 
         } catch (Exception e) {
 
@@ -45,38 +86,107 @@ public class Server implements ClientAPI {
 
     }
 
-    public synchronized void saveState() {
+    // Only ever run by the snapshotter thread. Only the boards written since the last snapshot are touched,
+    // and only their new announcements are appended, so requests keep being served meanwhile.
+    public void saveState() {
 
         try{
 
-            this.isBeingSaved = true;
+            if (this.operationLog.getRecordCount() == 0 && this.shardStore.readManifest() != null) {
+                return;
+            }
 
-            State state = new State(this.clientList, this.generalBoard);
+            //records appended from now on go to the new segment and are replayed on top of this snapshot
+            int logGeneration = this.operationLog.roll();
+
+            //a board that could not be saved stays dirty, and its records stay in the log until one snapshot saves it
+            List<PublicKey> failed = new ArrayList<>();
+            for (PublicKey clientPublicKey : this.dirtyClients) {
+                this.dirtyClients.remove(clientPublicKey);
+                ClientLibrary clientLibrary = this.clientList.get(clientPublicKey);
+                if (clientLibrary != null) {
+                    try {
+                        this.shardStore.appendClientSegment(clientLibrary);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        failed.add(clientPublicKey);
+                    }
+                }
+            }
+            this.dirtyClients.addAll(failed);
+
+            boolean generalFailed = false;
+            if (this.generalBoardDirty.getAndSet(false)) {
+                try {
+                    this.shardStore.appendGeneralSegment(this.generalBoard);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    this.generalBoardDirty.set(true);
+                    generalFailed = true;
+                }
+            }
 
-            FileOutputStream f = new FileOutputStream(new File("data/state" + this.serverPort + ".txt"));
-            ObjectOutputStream o = new ObjectOutputStream(f);
-            o.writeObject(state);
+            if (!failed.isEmpty() || generalFailed) {
+                System.out.println("WARNING: " + (failed.size() + (generalFailed ? 1 : 0)) + " board(s) could not be saved, the log is kept until they are.");
+                return;
+            }
 
-            o.close();
-            f.close();
+            //every board is in a segment by now, whole-file shards left from before are redundant
+            this.shardStore.retireShards();
+            this.shardStore.writeManifest(logGeneration);
+            this.operationLog.deleteSegmentsBefore(logGeneration);
+            retireLegacyState();
 
-            FileOutputStream fBackup = new FileOutputStream(new File("data/state" + this.serverPort + "_backup.txt"));
-            ObjectOutputStream oBackup = new ObjectOutputStream(fBackup);
-            oBackup.writeObject(state);
+        } catch (IOException e){
+            System.out.println("WARNING: There was an error while saving the server's state.");
+        }
 
-            oBackup.close();
-            fBackup.close();
+    }
 
-            this.isBeingSaved = false;
+    public void loadState() throws ClassNotFoundException, IOException {
 
-        } catch (IOException e){
-            System.out.println("WARNING: There was an error while saving the server's state.");
+        Integer logGeneration = this.shardStore.readManifest();
+
+        if (logGeneration != null && this.shardStore.hasShards()) {
+
+            this.clientList = this.shardStore.readClientShards();
+            this.generalBoard = this.shardStore.readGeneralShard();
+
+            //boards still in whole-file shards are all appended to segments by the first snapshot
+            this.dirtyClients.addAll(this.clientList.keySet());
+            this.generalBoardDirty.set(true);
+
+        } else if (logGeneration != null) {
+
+            this.clientList = this.shardStore.readClientSegments();
+            this.generalBoard = this.shardStore.readGeneralSegment();
+
+        } else {
+
+            logGeneration = loadLegacyState();
+
+            //nothing has been sharded yet, so the first snapshot writes every board
+            this.dirtyClients.addAll(this.clientList.keySet());
+            this.generalBoardDirty.set(true);
         }
 
+        for (ClientLibrary clientLibrary : new ArrayList<>(this.clientList.values())) {
+            addClient(clientLibrary);
+        }
+
+        File dataDirectory = new File("data");
+        for (LogRecord record : OperationLog.readSegments(dataDirectory, this.serverPort, logGeneration)) {
+            replay(record);
+        }
+
+        //never append after a possibly torn tail, start a fresh segment instead
+        this.operationLog = new OperationLog(dataDirectory, this.serverPort, OperationLog.lastGeneration(dataDirectory, this.serverPort) + 1);
+        this.snapshotter = new Snapshotter(this, this.serverPort);
 
     }
 
-    public void loadState() throws ClassNotFoundException {
+    // Java-serialized state files written before boards were sharded, loaded only until the first snapshot
+    private int loadLegacyState() throws ClassNotFoundException {
 
         File stateFile = new File("data/state" + this.serverPort + ".txt");
         File stateFileBackup = new File("data/state" + this.serverPort + "_backup.txt");
@@ -93,7 +203,7 @@ public class Server implements ClientAPI {
 
             this.clientList = state.getClientList();
             this.generalBoard = state.getGeneralBoard();
-            return;
+            return state.getLogGeneration();
 
         } catch (IOException e1){
 
@@ -108,21 +218,315 @@ public class Server implements ClientAPI {
 
                 this.clientList = state.getClientList();
                 this.generalBoard = state.getGeneralBoard();
-                return;
+                return state.getLogGeneration();
 
             } catch (IOException e2){
 
                 this.clientList = new Hashtable<>();
                 this.generalBoard = new GeneralBoard();
+                return 0;
+
+            }
+
+        }
+
+    }
+
+    private void retireLegacyState() {
+
+        for (String name : new String[] {"data/state" + this.serverPort + ".txt", "data/state" + this.serverPort + "_backup.txt"}) {
+            File legacyStateFile = new File(name);
+            if (legacyStateFile.exists() && !legacyStateFile.renameTo(new File(name + ".migrated"))) {
+                System.out.println("WARNING: Unable to retire the old state file " + name + ".");
+            }
+        }
+    }
+
+    public void shutdown() {
+
+        this.snapshotter.shutdown();
+        this.cryptoWorkers.shutdown();
+        this.peerDispatcher.shutdown();
+        if (this.antiEntropy != null) {
+            this.antiEntropy.shutdown();
+        }
+
+        try {
+            this.operationLog.close();
+            for (ClientLibrary clientLibrary : this.clientList.values()) {
+                clientLibrary.getAnnouncements().close();
+            }
+            this.generalBoard.getAnnouncements().close();
+        } catch (IOException e) {
+            System.out.println("WARNING: There was an error while closing the server's log and segments.");
+        }
+    }
+
+    public String getBoardStatistics() {
+
+        StringBuilder statistics = new StringBuilder("general board: " + this.generalBoard.getAnnouncements().getStatistics());
+        for (ClientLibrary clientLibrary : this.clientList.values()) {
+            statistics.append("\nclient" + clientLibrary.getClientNumber() + "'s board: " + clientLibrary.getAnnouncements().getStatistics());
+        }
+
+        return statistics.toString();
+    }
+
+    private void replay(LogRecord record) {
+
+        switch (record.getType()) {
+            case LogRecord.REGISTER:
+                if (this.clientList.get(record.getClientPublicKey()) == null) {
+                    addClient(new ClientLibrary(record.getClientNumber(), record.getClientPublicKey()));
+                }
+                break;
+
+            case LogRecord.ANNOUNCEMENT:
+                ClientLibrary clientLibrary = this.clientList.get(record.getClientPublicKey());
+                if (clientLibrary != null) {
+                    clientLibrary.restoreAnnouncement(record.getTriplet());
+                }
+                break;
+
+            case LogRecord.GENERAL_ANNOUNCEMENT:
+                this.generalBoard.restoreAnnouncement(record.getQuartet());
+                break;
+        }
+    }
+
+    private void persist(LogRecord record) {
+        persistAll(Collections.singletonList(record));
+    }
+
+    private void persistAll(List<LogRecord> records) {
+
+        //mark the owning shard before appending, so a record that lands in a segment about to be rolled is
+        //always covered by that snapshot
+        for (LogRecord record : records) {
+            if (record.getType() == LogRecord.GENERAL_ANNOUNCEMENT) {
+                this.generalBoardDirty.set(true);
+            } else {
+                this.dirtyClients.add(record.getClientPublicKey());
+            }
+        }
+
+        try {
+
+            this.operationLog.appendAll(records);
+            this.snapshotter.logGrew(this.operationLog.getRecordCount());
+
+        } catch (IOException e) {
+            System.out.println("WARNING: There was an error while saving the server's state.");
+        }
+    }
+
+    // Run before taking client traffic: every peer is asked for what was delivered while this replica was
+    // down. Peers are not trusted, an announcement is only installed if its client's signature checks out.
+    public void catchUpFrom(Map<PublicKey, ClientAPI> peers) {
+
+        int installed = 0;
 
+        for (Map.Entry<PublicKey, ClientAPI> peer : peers.entrySet()) {
+
+            if (peer.getKey().equals(this.serverPublicKey)) {
+                continue;
             }
 
+            try {
+
+                Map<Long, Integer> clientWts = new HashMap<>();
+                for (ClientLibrary clientLibrary : this.clientList.values()) {
+                    clientWts.put(clientLibrary.getClientId(), clientLibrary.getOneNAtomicRegister().getWts());
+                }
+                int generalWts = this.generalBoard.getnNRegularRegister().getWts();
+
+                long nonce = this.replicaKeys.nonce();
+                byte[] mac = this.replicaKeys.authenticate(KeyRegistry.fingerprint(peer.getKey()), SignedPayload.catchUp(clientWts, generalWts, nonce));
+                StateTransfer transfer = peer.getValue().catchUp(clientWts, generalWts, nonce, mac, this.replicaKeys.getServerId());
+                installed += install(transfer);
+
+            } catch (Exception e) {
+                System.out.println("WARNING: Unable to catch up from one of the peers, trying the others.");
+            }
         }
 
+        System.out.println("Caught up on " + installed + " announcements from " + peers.size() + " peers.");
+    }
+
+    private int install(StateTransfer transfer) throws Exception {
+
+        List<LogRecord> records = new ArrayList<>();
+
+        for (Map.Entry<PublicKey, ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>>> board : transfer.getAnnounces().entrySet()) {
+
+            PublicKey clientPublicKey = board.getKey();
+            ClientLibrary clientLibrary = this.clientList.get(clientPublicKey);
+
+            for (Quartet<Integer, String, byte[], ArrayList<Integer>> announcement : board.getValue()) {
+
+                if ((clientLibrary != null && clientLibrary.getAnnouncements().containsKey(announcement.getValue0()))
+                        || !VerificationCache.validateDigitalSignature(announcement.getValue2(), clientPublicKey, SignedPayload.post(announcement.getValue1(), announcement.getValue0()))) {
+                    continue;
+                }
+
+                //a client registered during the downtime is known once one of its own posts verifies
+                if (clientLibrary == null) {
+                    String clientNumber = transfer.getClientNumbers().get(clientPublicKey);
+                    clientLibrary = new ClientLibrary(clientNumber, clientPublicKey);
+                    if (!addClient(clientLibrary)) {
+                        break;
+                    }
+                    records.add(LogRecord.register(clientPublicKey, clientNumber));
+                }
+
+                clientLibrary.restoreAnnouncement(new Triplet<>(announcement.getValue0(), announcement.getValue1(), announcement.getValue2()));
+                records.add(LogRecord.announcement(clientPublicKey, announcement.getValue0(), announcement.getValue1(), announcement.getValue2()));
+            }
+        }
+
+        Map<String, PublicKey> clientKeys = new HashMap<>();
+        for (ClientLibrary clientLibrary : this.clientList.values()) {
+            clientKeys.put(clientLibrary.getClientNumber(), clientLibrary.getClientPublicKey());
+        }
+
+        for (Quintet<Integer, String, String, byte[], ArrayList<Integer>> announcement : transfer.getAnnouncesGeneral()) {
+
+            PublicKey clientPublicKey = clientKeys.get(announcement.getValue2());
+            if (clientPublicKey == null || this.generalBoard.getAnnouncements().containsKey(announcement.getValue0())
+                    || !VerificationCache.validateDigitalSignature(announcement.getValue3(), clientPublicKey,
+                    SignedPayload.postGeneral(announcement.getValue1(), announcement.getValue0(), announcement.getValue2()))) {
+                continue;
+            }
+
+            this.generalBoard.restoreAnnouncement(new Quartet<>(announcement.getValue0(), announcement.getValue1(), announcement.getValue2(), announcement.getValue3()));
+            records.add(LogRecord.generalAnnouncement(announcement.getValue0(), announcement.getValue1(), announcement.getValue2(), announcement.getValue3()));
+        }
+
+        persistAll(records);
+
+        int installed = 0;
+        for (LogRecord record : records) {
+            if (record.getType() != LogRecord.REGISTER) {
+                installed++;
+            }
+        }
+
+        return installed;
+    }
+
+    // Replicas that are down now hand over their keys themselves when they start
+    public void exchangeReplicaKeys(Map<PublicKey, ClientAPI> stubs) {
+        for (Map.Entry<PublicKey, ClientAPI> peer : stubs.entrySet()) {
+            if (peer.getKey().equals(this.serverPublicKey)) {
+                continue;
+            }
+            try {
+                this.replicaKeys.exchange(peer.getKey(), peer.getValue());
+            } catch (Exception e) {
+                System.out.println("WARNING: Could not agree on a replica key with a peer.");
+            }
+        }
     }
 
     public void setStubs(Map<PublicKey, ClientAPI> stubs) {
+
+        KeyRegistry<ClientAPI> replicas = new KeyRegistry<>();
+        for (Map.Entry<PublicKey, ClientAPI> replica : stubs.entrySet()) {
+            try {
+                replicas.register(replica.getKey(), replica.getValue());
+            } catch (InvalidKeyException e) {
+                System.out.println("WARNING: Two replicas have keys with the same fingerprint, only one of them is used.");
+            }
+        }
+
         this.stubs = stubs;
+        this.replicas = replicas;
+        if (this.antiEntropy == null) {
+            this.antiEntropy = new AntiEntropy(this, this.serverPort);
+        }
+    }
+
+    // Only ever run by the anti-entropy thread. Boards whose roots match a peer's cost nothing more, the
+    // others are descended one level per call down to the leaves that differ, which are then fetched whole.
+    public void antiEntropy() {
+
+        int installed = 0;
+
+        for (Map.Entry<PublicKey, ClientAPI> peer : this.stubs.entrySet()) {
+
+            if (peer.getKey().equals(this.serverPublicKey)) {
+                continue;
+            }
+
+            try {
+
+                ClientAPI stub = peer.getValue();
+                long peerId = KeyRegistry.fingerprint(peer.getKey());
+                long nonce = this.replicaKeys.nonce();
+                Map<PublicKey, byte[]> roots = stub.merkleRoots(nonce, this.replicaKeys.authenticate(peerId, SignedPayload.merkleRoots(nonce)),
+                        this.replicaKeys.getServerId());
+
+                for (Map.Entry<PublicKey, byte[]> root : roots.entrySet()) {
+                    ClientLibrary clientLibrary = this.clientList.get(root.getKey());
+                    MerkleTree merkleTree = clientLibrary == null ? new MerkleTree() : clientLibrary.getAnnouncements().getMerkleTree();
+                    if (!Arrays.equals(root.getValue(), merkleTree.getRoot())) {
+                        installed += repair(stub, peerId, root.getKey(), merkleTree);
+                    }
+                }
+
+                MerkleTree generalTree = this.generalBoard.getAnnouncements().getMerkleTree();
+                ArrayList<byte[]> generalRoot = merkleDigests(stub, peerId, null, MerkleTree.ROOT_LEVEL, new ArrayList<>(Collections.singletonList(0)));
+                if (generalRoot.get(0) != null && !Arrays.equals(generalRoot.get(0), generalTree.getRoot())) {
+                    installed += repair(stub, peerId, null, generalTree);
+                }
+
+            } catch (Exception e) {
+                System.out.println("WARNING: Anti-entropy with one of the peers failed, it is retried on the next round.");
+            }
+        }
+
+        if (installed > 0) {
+            System.out.println("Anti-entropy installed " + installed + " missing announcements.");
+        }
+    }
+
+    private int repair(ClientAPI peer, long peerId, PublicKey clientPublicKey, MerkleTree merkleTree) throws Exception {
+
+        ArrayList<Integer> differing = new ArrayList<>(Collections.singletonList(0));
+
+        for (int level = MerkleTree.ROOT_LEVEL - 1; level >= 0 && !differing.isEmpty(); level--) {
+
+            ArrayList<Integer> children = new ArrayList<>();
+            for (int node : differing) {
+                for (int child = 0; child < MerkleTree.FANOUT; child++) {
+                    children.add(node * MerkleTree.FANOUT + child);
+                }
+            }
+
+            ArrayList<byte[]> digests = merkleDigests(peer, peerId, clientPublicKey, level, children);
+
+            //nodes the peer has nothing under are left to its own anti-entropy
+            differing = new ArrayList<>();
+            for (int i = 0; i < children.size(); i++) {
+                if (digests.get(i) != null && !Arrays.equals(digests.get(i), merkleTree.getDigest(level, children.get(i)))) {
+                    differing.add(children.get(i));
+                }
+            }
+        }
+
+        if (differing.isEmpty()) {
+            return 0;
+        }
+
+        long nonce = this.replicaKeys.nonce();
+        return install(peer.fetchLeaves(clientPublicKey, differing, nonce,
+                this.replicaKeys.authenticate(peerId, SignedPayload.fetchLeaves(clientPublicKey, differing, nonce)), this.replicaKeys.getServerId()));
+    }
+
+    private ArrayList<byte[]> merkleDigests(ClientAPI peer, long peerId, PublicKey clientPublicKey, int level, ArrayList<Integer> nodes) throws Exception {
+        long nonce = this.replicaKeys.nonce();
+        return peer.merkleDigests(clientPublicKey, level, nodes, nonce,
+                this.replicaKeys.authenticate(peerId, SignedPayload.merkleDigests(clientPublicKey, level, nodes, nonce)), this.replicaKeys.getServerId());
     }
 
     @Override
@@ -132,10 +536,10 @@ public class Server implements ClientAPI {
             System.out.println("\n-------------------------------------------------------------\n" +
                     "client" + clientNumber + " called register() method.");
 
-            if(AsymmetricCrypto.validateDigitalSignature(signature, clientPublicKey, clientNumber)
-                    & this.clientList.get(clientPublicKey)==null) {
+            if(AsymmetricCrypto.validateDigitalSignature(signature, clientPublicKey, SignedPayload.register(clientNumber))
+                    & this.clientList.get(clientPublicKey)==null
+                    && addClient(new ClientLibrary(clientNumber, clientPublicKey))) {
 
-                this.clientList.put(clientPublicKey, new ClientLibrary(clientNumber, clientPublicKey, this.serverPublicKey, this.serverPrivateKey));
                 System.out.println("\nRegistered client" + clientNumber + " with Public key: \n\n" + clientPublicKey);
 
             }else{
@@ -144,7 +548,7 @@ public class Server implements ClientAPI {
 
             }
 
-            saveState();
+            persist(LogRecord.register(clientPublicKey, clientNumber));
 
         } catch (Exception e){
             throw new RemoteException("\nThe server registered in port " + this.serverPort + " reports that you are already registered.");
@@ -152,28 +556,39 @@ public class Server implements ClientAPI {
     }
 
     @Override
-    public Acknowledge post(PublicKey clientPublicKey, String message, int wts, byte [] signature, boolean isWriteBack) throws RemoteException {
+    public Acknowledge post(long clientId, String message, int wts, byte [] signature, boolean isWriteBack, long senderId) throws RemoteException {
 
         try {
+            ClientLibrary clientLibrary = this.clientIds.get(clientId);
             try {
                 System.out.println("\n-------------------------------------------------------------\n" +
-                        "client" + clientList.get(clientPublicKey).getClientNumber() + " called post() method.");
+                        "client" + clientLibrary.getClientNumber() + " called post() method.");
             } catch (NullPointerException e) {
                 throw new RemoteException("\nThe server registered in port " + this.serverPort + " reports that you are not registered yet. \nIf you're unsure if this is right, please type the 'register' command.");
             }
 
-            String ack = this.clientList.get(clientPublicKey).write(wts, message, signature, this.stubs);
+            String ack = clientLibrary.write(wts, message, signature, this.broadcasts, this.replicas.asMap());
 
             if (ack.equals("BADSIGNATURE") || ack.equals("BADBROADCAST")){
                 throw new RemoteException("\nSomething went wrong in the server registered in port " + this.serverPort + "... (" + ack + ")");
             }
 
+            if (ack.equals("OUTOFWINDOW")){
+                throw new RemoteException("\nThe server registered in port " + this.serverPort + " refused wts " + wts + ", it is too far from the newest post on your board. (" + ack + ")");
+            }
+
             if (ack.equals("IGNORED") && !isWriteBack){
                 throw new RemoteException("\nThe server registered in port " + this.serverPort + " reports that you are registered but not logged in. \nIf you're unsure if this is right, please type the 'login' command.");
             }
 
-            saveState();
-            return new Acknowledge(wts, ack, AsymmetricCrypto.wrapDigitalSignature(ack + wts, this.serverPrivateKey));
+            Announcement announcement = clientLibrary.getAnnouncements().get(wts);
+            if (ack.equals("ACK") && announcement != null) {
+                Quartet<Integer, String, byte[], ArrayList<Integer>> delivered = announcement.getTriplet();
+                persist(LogRecord.announcement(clientLibrary.getClientPublicKey(), delivered.getValue0(), delivered.getValue1(), delivered.getValue2()));
+            }
+
+            //answered under the sender's session, the author's for a post and the reader's for a write-back
+            return new Acknowledge(wts, ack, authenticate(senderId, SignedPayload.acknowledge(ack, wts)));
 
         } catch (RemoteException e) {
             throw new RemoteException(e.getMessage());
@@ -192,23 +607,29 @@ public class Server implements ClientAPI {
     }
 
     @Override
-    public Acknowledge postGeneral(PublicKey clientPublicKey, String message, int wts, byte[] signature,
-                                   byte[] senderServerSignature, PublicKey senderServerPublicKey) throws RemoteException {
+    public Acknowledge postGeneral(long clientId, String message, int wts, byte[] signature,
+                                   Map<Long, byte[]> senderServerMacs, long senderServerId) throws RemoteException {
 
         try{
+            ClientLibrary clientLibrary = this.clientIds.get(clientId);
             try {
                 System.out.println("\n-------------------------------------------------------------\n" +
-                        "client" + clientList.get(clientPublicKey).getClientNumber() + " called postGeneral() method.");
+                        "client" + clientLibrary.getClientNumber() + " called postGeneral() method.");
             } catch (NullPointerException e) {
                 throw new RemoteException("\nThe server registered in port " + this.serverPort + " reports that you are not registered yet. \nIf you're unsure if this is right, please type the 'register' command.");
             }
 
 
-            String ack = this.generalBoard.write(wts, message, clientList.get(clientPublicKey).getClientNumber(), signature, clientPublicKey,
-                    senderServerSignature, senderServerPublicKey, this.serverPrivateKey, this.serverPublicKey, this.stubs);
+            String ack = this.generalBoard.write(wts, message, clientLibrary.getClientNumber(), signature, clientId, clientLibrary.getClientPublicKey(),
+                    senderServerMacs, senderServerId, this.replicaKeys, this.replicaKeys.getServerId(), this.replicas.asMap(), this.peerDispatcher);
 
-            saveState();
-            return new Acknowledge(wts, ack, AsymmetricCrypto.wrapDigitalSignature(ack + wts, this.serverPrivateKey));
+            Announcement announcement = this.generalBoard.getAnnouncements().get(wts);
+            if ("ACK".equals(ack) && announcement != null) {
+                Quintet<Integer, String, String, byte[], ArrayList<Integer>> committed = announcement.getQuartet();
+                persist(LogRecord.generalAnnouncement(committed.getValue0(), committed.getValue1(), committed.getValue2(), committed.getValue3()));
+            }
+
+            return new Acknowledge(wts, ack, authenticate(clientId, SignedPayload.acknowledge(ack, wts)));
 
         } catch (RemoteException e) {
             throw new RemoteException(e.getMessage());
@@ -227,25 +648,27 @@ public class Server implements ClientAPI {
     }
 
     @Override
-    public ReadView read(PublicKey toReadClientPublicKey, int number, int rid , byte[] signature, PublicKey clientPublicKey) throws RemoteException {
+    public ReadView read(long toReadClientId, int number, int rid , byte[] signature, long clientId) throws RemoteException {
 
         try {
             try {
-                clientList.get(clientPublicKey).getClientNumber();
+                this.clientIds.get(clientId).getClientNumber();
             } catch (NullPointerException e) {
                 throw new RemoteException("\nThe server registered in port " + this.serverPort + " reports that you are not registered yet. \nIf you're unsure if this is right, please type the 'register' command.");
             }
 
             try {
                 System.out.println("\n-------------------------------------------------------------\n" +
-                        "client called the read() method to read client" + clientList.get(toReadClientPublicKey).getClientNumber() + "'s announcements.");
+                        "client called the read() method to read client" + this.clientIds.get(toReadClientId).getClientNumber() + "'s announcements.");
             } catch (NullPointerException e) {
                 throw new RemoteException("\nThe server registered in port " + this.serverPort + " reports the client you indicated is not registered.");
             }
 
 
-            ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> triplets = this.clientList.get(toReadClientPublicKey).read(number, rid, signature, clientPublicKey);
-            return new ReadView(triplets, rid, AsymmetricCrypto.wrapDigitalSignature(AsymmetricCrypto.transformQuartetToString(triplets) + rid, this.serverPrivateKey));
+            ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> triplets = this.clientIds.get(toReadClientId).read(number, rid,
+                    signature, sessionKey(clientId));
+            byte[] root = AnnouncementTree.root(triplets);
+            return new ReadView(triplets, rid, root, authenticate(clientId, SignedPayload.readView(toReadClientId, root, rid)));
 
         } catch (RemoteException e) {
             throw new RemoteException(e.getMessage());
@@ -263,11 +686,11 @@ public class Server implements ClientAPI {
     }
 
     @Override
-    public ReadView readGeneral(int number, int rid, byte[] signature, PublicKey clientPublicKey) throws RemoteException {
+    public ReadView readGeneral(int number, int rid, byte[] signature, long clientId) throws RemoteException {
 
         try {
             try {
-                clientList.get(clientPublicKey).getClientNumber();
+                this.clientIds.get(clientId).getClientNumber();
             } catch (NullPointerException e) {
                 throw new RemoteException("\nThe server registered in port " + this.serverPort + " reports that you are not registered yet. \nIf you're unsure if this is right, please type the 'register' command.");
             }
@@ -275,8 +698,9 @@ public class Server implements ClientAPI {
             System.out.println("\n-------------------------------------------------------------\n" +
                 "A client called the readGeneral() method.");
 
-            ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> quartets = this.generalBoard.read(number, rid, signature, clientPublicKey);
-            return new ReadView(rid, AsymmetricCrypto.wrapDigitalSignature(AsymmetricCrypto.transformQuintetToString(quartets) + rid, this.serverPrivateKey), quartets);
+            ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> quartets = this.generalBoard.read(number, rid, signature, sessionKey(clientId));
+            byte[] root = AnnouncementTree.generalRoot(quartets);
+            return new ReadView(rid, root, authenticate(clientId, SignedPayload.readGeneralView(root, rid)), quartets);
 
         } catch (RemoteException e) {
             throw new RemoteException(e.getMessage());
@@ -288,11 +712,30 @@ public class Server implements ClientAPI {
     }
 
     @Override
-    public Acknowledge login(PublicKey clientPublicKey) throws RemoteException {
+    public Acknowledge login(PublicKey clientPublicKey, byte[] sessionKey, long nonce, byte[] signature) throws RemoteException {
 
         try {
             String message = "" + this.clientList.get(clientPublicKey).getOneNAtomicRegister().getWts() + "|" + this.generalBoard.getnNRegularRegister().getWts();
-            return new Acknowledge(message, AsymmetricCrypto.wrapDigitalSignature(message, this.serverPrivateKey));
+
+            if (!AsymmetricCrypto.validateDigitalSignature(signature, clientPublicKey, SignedPayload.session(sessionKey, nonce))) {
+                throw new RemoteException("\nInvalid login attempt");
+            }
+
+            //a new login replaces the previous session, a replayed or older one must not bring back a key the client dropped
+            SecretKey key = SessionCrypto.unwrapKey(sessionKey, this.serverPrivateKey);
+            long clientId = KeyRegistry.fingerprint(clientPublicKey);
+            synchronized (this.loginNonces) {
+                Long last = this.loginNonces.get(clientId);
+                if (last != null && nonce <= last) {
+                    throw new RemoteException("\nThe server registered in port " + this.serverPort + " refused a login older than your current one.");
+                }
+                this.loginNonces.put(clientId, nonce);
+                this.sessionKeys.put(clientId, key);
+            }
+            return new Acknowledge(message, SessionCrypto.mac(SignedPayload.login(message), key));
+
+        } catch (RemoteException e) {
+            throw new RemoteException(e.getMessage());
 
         } catch (NullPointerException e) {
             throw new RemoteException("\nThe server registered in port " + this.serverPort + " reports that you are not registered yet. \nIf you're unsure if this is right, please type the 'register' command.");
@@ -305,32 +748,274 @@ public class Server implements ClientAPI {
     }
 
     @Override
-    public void echo(PublicKey clientPublicKey, Triplet<Integer, String, byte[]> message, byte[] signature, PublicKey serverPublicKey) throws RemoteException {
-        try{
-            this.clientList.get(clientPublicKey).getDoubleEchoBroadcaster().echo(clientPublicKey, message, signature, serverPublicKey);
-        } catch (Exception e){
+    public void deliverBatch(final List<ReplicaMessage> messages, final byte[] mac, final long serverId) throws RemoteException {
+
+        //only known replicas get a queue of their own
+        if (!this.replicas.contains(serverId)) {
+            System.out.println("WARNING: Dropped a batch of replica messages from an unknown replica.");
+            return;
+        }
+
+        //checked and counted on a crypto worker after the sender's earlier batches, the sender only waits while its queue is full
+        this.cryptoWorkers.execute(serverId, new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    if (!replicaKeys.validate(mac, serverId, SignedPayload.batch(messages))) {
+                        System.out.println("WARNING: Dropped a batch of replica messages that failed authentication.");
+                        return;
+                    }
+
+                    for (ReplicaMessage message : messages) {
+                        if (message.getType() == ReplicaMessage.COMMIT) {
+                            generalBoard.getnNRegularRegister().addCommitRequest(clientIds.getKey(message.getClientId()),
+                                    message.getWts(), message.getCommit(), serverId);
+                        } else {
+                            DoubleEchoBroadcaster broadcaster = broadcasts.get(clientIds.get(message.getClientId()),
+                                    message.getWts(), replicas.asMap());
+                            if (broadcaster != null) {
+                                broadcaster.deliver(message, serverId);
+                            }
+                        }
+                    }
+                } catch (Exception e){
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    @Override
+    public Triplet<Integer, String, byte[]> fetchValue(long clientId, int wts, byte[] digest, byte[] mac, long serverId) throws RemoteException {
+
+        try {
+            if (!this.replicas.contains(serverId) || !this.replicaKeys.validate(mac, serverId, SignedPayload.fetchValue(clientId, wts, digest))) {
+                throw new RemoteException("\nThe server registered in port " + this.serverPort + " refused an unauthenticated value request.");
+            }
+
+            ClientLibrary clientLibrary = this.clientIds.get(clientId);
+            if (clientLibrary == null) {
+                return null;
+            }
+
+            //still in its round, or already on the board
+            DoubleEchoBroadcaster broadcaster = this.broadcasts.find(clientId, wts);
+            if (broadcaster != null && broadcaster.getValue(digest) != null) {
+                return broadcaster.getValue(digest);
+            }
+            Announcement announcement = clientLibrary.getAnnouncements().get(wts);
+            if (announcement != null) {
+                Quartet<Integer, String, byte[], ArrayList<Integer>> stored = announcement.getTriplet();
+                Triplet<Integer, String, byte[]> value = new Triplet<>(stored.getValue0(), stored.getValue1(), stored.getValue2());
+                if (DoubleEchoBroadcaster.digest(value).equals(ByteBuffer.wrap(digest))) {
+                    return value;
+                }
+            }
+            return null;
+
+        } catch (RemoteException e) {
+            throw e;
+        } catch (Exception e) {
             e.printStackTrace();
+            throw new RemoteException("\nThe server registered in port " + this.serverPort + " could not look up the value.");
         }
     }
 
     @Override
-    public void ready(PublicKey clientPublicKey, Triplet<Integer, String, byte[]> message, byte[] signature, PublicKey serverPublicKey) throws RemoteException {
-        try{
-            this.clientList.get(clientPublicKey).getDoubleEchoBroadcaster().ready(clientPublicKey, message, signature, serverPublicKey);
-        } catch (Exception e){
+    public ReplicaKey exchangeReplicaKey(ReplicaKey replicaKey, PublicKey serverPublicKey) throws RemoteException {
+        try {
+            return this.replicaKeys.accept(replicaKey, serverPublicKey);
+        } catch (Exception e) {
             e.printStackTrace();
+            throw new RemoteException("\nThe server registered in port " + this.serverPort + " refused the replica key.");
         }
     }
 
     @Override
-    public void addCommitRequest(PublicKey clientPublicKey, Quartet<Integer, String, String, byte[]> valueQuartet, byte[] sSSignature, PublicKey serverPublicKey) throws RemoteException{
-        try{
-            this.generalBoard.getnNRegularRegister().addCommitRequest(clientPublicKey, valueQuartet, sSSignature, serverPublicKey);
-        } catch (Exception e){
+    public StateTransfer catchUp(Map<Long, Integer> clientWts, int generalWts, long nonce, byte[] mac, long serverId) throws RemoteException {
+
+        try {
+
+            checkReplica(serverId, nonce, mac, SignedPayload.catchUp(clientWts, generalWts, nonce));
+
+            System.out.println("\n-------------------------------------------------------------\n" +
+                    "A replica called the catchUp() method.");
+
+            Map<PublicKey, String> clientNumbers = new HashMap<>();
+            Map<PublicKey, ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>>> announces = new HashMap<>();
+
+            for (ClientLibrary clientLibrary : this.clientList.values()) {
+
+                Integer wts = clientWts.get(clientLibrary.getClientId());
+                ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> newer = clientLibrary.getAnnouncementsTripletsAfter(wts == null ? 0 : wts);
+
+                if (!newer.isEmpty()) {
+                    clientNumbers.put(clientLibrary.getClientPublicKey(), clientLibrary.getClientNumber());
+                    announces.put(clientLibrary.getClientPublicKey(), newer);
+                }
+            }
+
+            return new StateTransfer(clientNumbers, announces, this.generalBoard.getAnnouncementsQuartetsAfter(generalWts));
+
+        } catch (RemoteException e) {
+            throw new RemoteException(e.getMessage());
+
+        } catch (Exception e) {
             e.printStackTrace();
+            throw new RemoteException("\nCatch up error");
         }
     }
 
-    protected boolean isBeingSaved(){ return this.isBeingSaved; }
+    @Override
+    public Map<PublicKey, byte[]> merkleRoots(long nonce, byte[] mac, long serverId) throws RemoteException {
+
+        try {
+
+            checkReplica(serverId, nonce, mac, SignedPayload.merkleRoots(nonce));
+
+            Map<PublicKey, byte[]> roots = new HashMap<>();
+            for (ClientLibrary clientLibrary : this.clientList.values()) {
+                byte[] root = clientLibrary.getAnnouncements().getMerkleTree().getRoot();
+                if (root != null) {
+                    roots.put(clientLibrary.getClientPublicKey(), root);
+                }
+            }
+
+            return roots;
+
+        } catch (RemoteException e) {
+            throw new RemoteException(e.getMessage());
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RemoteException("\nAnti-entropy error");
+        }
+    }
+
+    @Override
+    public ArrayList<byte[]> merkleDigests(PublicKey clientPublicKey, int level, ArrayList<Integer> nodes, long nonce, byte[] mac, long serverId) throws RemoteException {
+
+        try {
+
+            checkReplica(serverId, nonce, mac, SignedPayload.merkleDigests(clientPublicKey, level, nodes, nonce));
+
+            ArrayList<byte[]> digests = new ArrayList<>();
+            MerkleTree merkleTree = boardAnnouncements(clientPublicKey).getMerkleTree();
+            for (int node : nodes) {
+                digests.add(merkleTree.getDigest(level, node));
+            }
+
+            return digests;
+
+        } catch (RemoteException e) {
+            throw new RemoteException(e.getMessage());
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RemoteException("\nAnti-entropy error");
+        }
+    }
+
+    @Override
+    public StateTransfer fetchLeaves(PublicKey clientPublicKey, ArrayList<Integer> leaves, long nonce, byte[] mac, long serverId) throws RemoteException {
+
+        try {
+
+            checkReplica(serverId, nonce, mac, SignedPayload.fetchLeaves(clientPublicKey, leaves, nonce));
+
+            AnnouncementStore announcements = boardAnnouncements(clientPublicKey);
+            ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>> triplets = new ArrayList<>();
+            ArrayList<Quintet<Integer, String, String, byte[], ArrayList<Integer>>> quartets = new ArrayList<>();
+
+            for (int leaf : leaves) {
+                for (int wts = MerkleTree.firstWts(leaf); wts < MerkleTree.firstWts(leaf + 1); wts++) {
+                    Announcement announcement = announcements.get(wts);
+                    if (announcement != null && clientPublicKey == null) {
+                        quartets.add(announcement.getQuartet());
+                    } else if (announcement != null) {
+                        triplets.add(announcement.getTriplet());
+                    }
+                }
+            }
+
+            Map<PublicKey, String> clientNumbers = new HashMap<>();
+            Map<PublicKey, ArrayList<Quartet<Integer, String, byte[], ArrayList<Integer>>>> announces = new HashMap<>();
+            if (clientPublicKey != null) {
+                clientNumbers.put(clientPublicKey, this.clientList.get(clientPublicKey).getClientNumber());
+                announces.put(clientPublicKey, triplets);
+            }
+
+            return new StateTransfer(clientNumbers, announces, quartets);
+
+        } catch (RemoteException e) {
+            throw new RemoteException(e.getMessage());
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RemoteException("\nAnti-entropy error");
+        }
+    }
+
+    // A null client key stands for the general board
+    private AnnouncementStore boardAnnouncements(PublicKey clientPublicKey) throws RemoteException {
+
+        if (clientPublicKey == null) {
+            return this.generalBoard.getAnnouncements();
+        }
+
+        ClientLibrary clientLibrary = this.clientList.get(clientPublicKey);
+        if (clientLibrary == null) {
+            throw new RemoteException("\nThe server registered in port " + this.serverPort + " reports the client you indicated is not registered.");
+        }
+
+        return clientLibrary.getAnnouncements();
+    }
+
+    private SecretKey sessionKey(long clientId) throws RemoteException {
+
+        SecretKey sessionKey = this.sessionKeys.get(clientId);
+        if (sessionKey == null) {
+            throw new RemoteException("\nThe server registered in port " + this.serverPort + " reports that you are registered but not logged in. \nIf you're unsure if this is right, please type the 'login' command.");
+        }
+
+        return sessionKey;
+    }
+
+    // Answers go out under the client's session key; before it logs in there is nothing to authenticate them with
+    private byte[] authenticate(long clientId, SignedPayload payload) throws NoSuchAlgorithmException, InvalidKeyException {
+
+        SecretKey sessionKey = this.sessionKeys.get(clientId);
+        return sessionKey == null ? null : SessionCrypto.mac(payload, sessionKey);
+    }
+
+    // A client is known by its key and by the key's fingerprint, a key whose fingerprint another client has is refused
+    private boolean addClient(ClientLibrary clientLibrary) {
+
+        try {
+            this.clientIds.register(clientLibrary.getClientPublicKey(), clientLibrary);
+        } catch (InvalidKeyException e) {
+            System.out.println("WARNING: client" + clientLibrary.getClientNumber() + "'s key has the same fingerprint as another client's.");
+            return false;
+        }
+
+        this.clientList.put(clientLibrary.getClientPublicKey(), clientLibrary);
+        return true;
+    }
+
+    // Requests from a peer are authenticated under the pairwise key and carry a nonce newer than any seen from it
+    private void checkReplica(long serverId, long nonce, byte[] mac, SignedPayload request) throws Exception {
+        if (!this.replicas.contains(serverId) || !this.replicaKeys.validate(mac, serverId, request) || !this.replicaKeys.fresh(serverId, nonce)) {
+            throw new RemoteException("\nThe server registered in port " + this.serverPort + " only hands its state to known replicas.");
+        }
+    }
+
+    protected OperationLog getOperationLog(){ return this.operationLog; }
+
+    protected ReplicaKeys getReplicaKeys(){ return this.replicaKeys; }
+
+    protected PeerDispatcher getPeerDispatcher(){ return this.peerDispatcher; }
+
+    protected BroadcastInstances getBroadcasts(){ return this.broadcasts; }
 
+    protected CryptoWorkers getCryptoWorkers(){ return this.cryptoWorkers; }
 }
@@ -3,6 +3,7 @@ package sec.project.server;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import sec.project.library.AsymmetricCrypto;
 import sec.project.library.ClientAPI;
+import sec.project.library.VerificationCache;
 
 import java.io.File;
 import java.rmi.registry.LocateRegistry;
@@ -34,14 +35,16 @@ public class ServerInit {
 
             ServerInit serverInit = new ServerInit(Integer.parseInt(serverPort), portsArray);
 
-            while(true){
-                System.console().readLine();
-                if(server.isBeingSaved()){
-                    System.out.println("WARNING: The server is currently saving state, try again in a moment.");
-                } else {
-                    break;
-                }
-            }
+            //a snapshot in progress is let finish first, segments are appended in place and must not be cut mid-append
+            System.console().readLine();
+            server.shutdown();
+            UnicastRemoteObject.unexportObject(server, true);
+            System.out.println("Log statistics: " + server.getOperationLog().getStatistics());
+            System.out.println("Board statistics:\n" + server.getBoardStatistics());
+            System.out.println("Verification cache statistics: " + VerificationCache.getStatistics());
+            System.out.println("Broadcast statistics: " + server.getBroadcasts().getStatistics());
+            System.out.println("Peer dispatch statistics: " + server.getPeerDispatcher().getStatistics());
+            System.out.println("Crypto worker statistics: " + server.getCryptoWorkers().getStatistics());
 
 
         } catch (Exception e){
@@ -69,6 +72,11 @@ public class ServerInit {
                 }
             }
 
+            //replica-to-replica messages are authenticated with pairwise MAC keys agreed here
+            server.exchangeReplicaKeys(stubs);
+
+            //install what the peers delivered while this replica was down before serving any client
+            server.catchUpFrom(stubs);
             this.server.setStubs(stubs);
             System.out.println("Server ready");
 
@@ -0,0 +1,258 @@
+package sec.project.server;
+
+import org.javatuples.Pair;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ShardStore {
+
+    private static final String CLIENT_SHARD_PREFIX = "client";
+    private static final String SHARD_SUFFIX = ".txt";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String GENERAL_SHARD = "general" + SHARD_SUFFIX;
+    private static final String GENERAL_SEGMENT = "general" + SEGMENT_SUFFIX;
+    private static final String MANIFEST = "manifest.txt";
+
+    private File directory;
+
+    public ShardStore(File directory){
+        this.directory = directory;
+        this.directory.mkdirs();
+    }
+
+    // Each board has its own segment, so a snapshot only appends the announcements committed since the last one
+    public void appendClientSegment(ClientLibrary clientLibrary) throws IOException {
+
+        if (clientLibrary.getAnnouncements().getSegment() == null) {
+            File segment = new File(this.directory, clientSegmentName(clientLibrary.getClientPublicKey()));
+            clientLibrary.attachSegment(segment.exists() ? AnnouncementSegment.open(segment)
+                    : AnnouncementSegment.create(segment, StateCodec.encodeClientBoard(clientLibrary.getClientNumber(), clientLibrary.getClientPublicKey())));
+        }
+
+        clientLibrary.getAnnouncements().persist();
+    }
+
+    public void appendGeneralSegment(GeneralBoard generalBoard) throws IOException {
+
+        if (generalBoard.getAnnouncements().getSegment() == null) {
+            File segment = new File(this.directory, GENERAL_SEGMENT);
+            generalBoard.attachSegment(segment.exists() ? AnnouncementSegment.open(segment)
+                    : AnnouncementSegment.create(segment, StateCodec.encodeGeneralBoard()));
+        }
+
+        generalBoard.getAnnouncements().persist();
+    }
+
+    // The manifest is written last: it names the log generation every shard on disk is up to date with
+    public void writeManifest(int logGeneration) throws IOException {
+
+        File temp = new File(this.directory, MANIFEST + ".tmp");
+
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            DataOutputStream output = new DataOutputStream(file);
+            output.writeInt(logGeneration);
+            output.flush();
+            file.getFD().sync();
+        }
+
+        Files.move(temp.toPath(), new File(this.directory, MANIFEST).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public Integer readManifest() {
+
+        File manifest = new File(this.directory, MANIFEST);
+        if (!manifest.exists()) {
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(new FileInputStream(manifest))) {
+            return input.readInt();
+        } catch (IOException e) {
+            System.out.println("WARNING: The state manifest is corrupted.");
+            return null;
+        }
+    }
+
+    // Opening a segment only indexes it, and segments are independent, so they are opened in parallel
+    public Map<PublicKey, ClientLibrary> readClientSegments() throws IOException {
+
+        Map<PublicKey, ClientLibrary> clientList = new Hashtable<>();
+        String[] names = this.directory.list();
+
+        if (names == null) {
+            return clientList;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        List<Future<ClientLibrary>> segments = new ArrayList<>();
+
+        try {
+
+            for (String name : names) {
+                if (name.startsWith(CLIENT_SHARD_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    final File file = new File(this.directory, name);
+                    segments.add(executor.submit(new Callable<ClientLibrary>() {
+                        @Override
+                        public ClientLibrary call() throws Exception {
+                            AnnouncementSegment segment = AnnouncementSegment.open(file);
+                            Pair<String, PublicKey> board = StateCodec.decodeClientBoard(segment.getBoardRecord());
+                            ClientLibrary clientLibrary = new ClientLibrary(board.getValue0(), board.getValue1());
+                            clientLibrary.attachSegment(segment);
+                            return clientLibrary;
+                        }
+                    }));
+                }
+            }
+
+            for (Future<ClientLibrary> segment : segments) {
+                ClientLibrary clientLibrary = segment.get();
+                clientList.put(clientLibrary.getClientPublicKey(), clientLibrary);
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while opening the announcement segments");
+
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to open an announcement segment", e.getCause());
+
+        } finally {
+            executor.shutdown();
+        }
+
+        return clientList;
+    }
+
+    public GeneralBoard readGeneralSegment() throws IOException {
+
+        GeneralBoard generalBoard = new GeneralBoard();
+        File segment = new File(this.directory, GENERAL_SEGMENT);
+
+        if (segment.exists()) {
+            generalBoard.attachSegment(AnnouncementSegment.open(segment));
+        }
+
+        return generalBoard;
+    }
+
+    // Whole-file shards written before segments, read once and appended to segments by the next snapshot
+    public boolean hasShards() {
+
+        String[] names = this.directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(SHARD_SUFFIX) && !name.equals(MANIFEST)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    public void retireShards() {
+
+        String[] names = this.directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(SHARD_SUFFIX) && !name.equals(MANIFEST) && !new File(this.directory, name).delete()) {
+                    System.out.println("WARNING: Unable to delete the old state shard " + name + ".");
+                }
+            }
+        }
+    }
+
+    public Map<PublicKey, ClientLibrary> readClientShards() throws IOException {
+
+        Map<PublicKey, ClientLibrary> clientList = new Hashtable<>();
+        String[] names = this.directory.list();
+
+        if (names == null) {
+            return clientList;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        List<Future<ClientLibrary>> shards = new ArrayList<>();
+
+        try {
+
+            for (String name : names) {
+                if (name.startsWith(CLIENT_SHARD_PREFIX) && name.endsWith(SHARD_SUFFIX)) {
+                    final File shard = new File(this.directory, name);
+                    shards.add(executor.submit(new Callable<ClientLibrary>() {
+                        @Override
+                        public ClientLibrary call() throws Exception {
+                            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(shard)))) {
+                                return StateCodec.readClientShard(input);
+                            }
+                        }
+                    }));
+                }
+            }
+
+            for (Future<ClientLibrary> shard : shards) {
+                ClientLibrary clientLibrary = shard.get();
+                clientList.put(clientLibrary.getClientPublicKey(), clientLibrary);
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading the state shards");
+
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to load a state shard", e.getCause());
+
+        } finally {
+            executor.shutdown();
+        }
+
+        return clientList;
+    }
+
+    public GeneralBoard readGeneralShard() throws IOException {
+
+        File shard = new File(this.directory, GENERAL_SHARD);
+        if (!shard.exists()) {
+            return new GeneralBoard();
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(shard)))) {
+            return StateCodec.readGeneralShard(input);
+        }
+    }
+
+    public static String clientSegmentName(PublicKey clientPublicKey) {
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(clientPublicKey.getEncoded());
+            StringBuilder name = new StringBuilder(CLIENT_SHARD_PREFIX);
+            for (int i = 0; i < 8; i++) {
+                name.append(String.format("%02x", digest[i]));
+            }
+            return name.append(SEGMENT_SUFFIX).toString();
+
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
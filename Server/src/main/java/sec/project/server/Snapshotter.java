@@ -0,0 +1,66 @@
+package sec.project.server;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class Snapshotter {
+
+    private static final long INTERVAL_SECONDS = Long.getLong("dpas.snapshot.intervalSeconds", 60);
+    private static final int LOG_RECORDS_TRIGGER = Integer.getInteger("dpas.snapshot.logRecords", 1000);
+    private static final long SHUTDOWN_SECONDS = Long.getLong("dpas.snapshot.shutdownSeconds", 60);
+
+    private ScheduledExecutorService executor;
+    private AtomicBoolean requested;
+    private Runnable snapshot;
+
+    public Snapshotter(final Server server, final int serverPort){
+
+        this.requested = new AtomicBoolean(false);
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "snapshotter-" + serverPort);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.snapshot = new Runnable() {
+            @Override
+            public void run() {
+                requested.set(false);
+                try {
+                    server.saveState();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+
+        this.executor.scheduleWithFixedDelay(this.snapshot, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Called after every append, so a busy server snapshots before its log tail gets too long to replay
+    public void logGrew(int recordCount){
+        if (recordCount >= LOG_RECORDS_TRIGGER && !this.executor.isShutdown() && this.requested.compareAndSet(false, true)) {
+            this.executor.execute(this.snapshot);
+        }
+    }
+
+    // Segments are appended in place, and interrupting an append closes its channel and leaves a torn tail, so a
+    // snapshot in progress is let finish instead. Scheduled ones that have not started are dropped.
+    public void shutdown(){
+
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+                System.out.println("WARNING: A snapshot is still being written after " + SHUTDOWN_SECONDS + " seconds, shutting down without it.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
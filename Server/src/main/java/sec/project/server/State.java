@@ -5,12 +5,16 @@ import java.security.PublicKey;
 import java.util.Map;
 
 public class State implements Serializable {
+    private static final long serialVersionUID = -3354548435716199019L;
+
     private Map<PublicKey,ClientLibrary> clientList;
     private GeneralBoard generalBoard;
+    private int logGeneration;
 
-    public State(Map<PublicKey,ClientLibrary> clientList, GeneralBoard generalBoard){
+    public State(Map<PublicKey,ClientLibrary> clientList, GeneralBoard generalBoard, int logGeneration){
         this.clientList = clientList;
         this.generalBoard = generalBoard;
+        this.logGeneration = logGeneration;
     }
 
     public Map<PublicKey, ClientLibrary> getClientList() {
@@ -20,4 +24,8 @@ public class State implements Serializable {
     public GeneralBoard getGeneralBoard() {
         return this.generalBoard;
     }
+
+    public int getLogGeneration() {
+        return this.logGeneration;
+    }
 }
@@ -0,0 +1,344 @@
+package sec.project.server;
+
+import org.javatuples.Pair;
+import org.javatuples.Quartet;
+import org.javatuples.Quintet;
+import org.javatuples.Triplet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+// Versioned binary format of the persisted boards. A shard is a header followed by framed records, each
+// being <length, payload, crc32 of payload>: the first record describes the board, every other one holds
+// an announcement as <wts, [client number], message, signature, packed references>. Segments use the same
+// records, but their board record carries no write timestamp since they are only ever appended to.
+public class StateCodec {
+
+    private static final int MAGIC = 0x44504153;
+    private static final short VERSION = 1;
+    private static final short SEGMENT_VERSION = 2;
+
+    private static final byte CLIENT_BOARD = 1;
+    private static final byte GENERAL_BOARD = 2;
+
+    public static void writeClientShard(DataOutputStream output, ClientLibrary clientLibrary) throws IOException {
+
+        writeHeader(output);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream board = new DataOutputStream(bytes);
+        board.writeByte(CLIENT_BOARD);
+        board.writeUTF(clientLibrary.getClientNumber());
+        writePublicKey(board, clientLibrary.getClientPublicKey());
+        board.writeInt(clientLibrary.getOneNAtomicRegister().getWts());
+        writeRecord(output, bytes.toByteArray());
+
+        for (int wts : clientLibrary.getExistingReferences()) {
+            writeRecord(output, encodeAnnouncement(clientLibrary.getAnnouncements().get(wts).getTriplet()));
+        }
+    }
+
+    public static ClientLibrary readClientShard(DataInputStream input)
+            throws IOException, GeneralSecurityException {
+
+        readHeader(input);
+
+        DataInputStream board = new DataInputStream(new ByteArrayInputStream(readRecord(input)));
+        if (board.readByte() != CLIENT_BOARD) {
+            throw new IOException("Not a client board shard");
+        }
+
+        String clientNumber = board.readUTF();
+        PublicKey clientPublicKey = readPublicKey(board);
+        int wts = board.readInt();
+
+        ClientLibrary clientLibrary = new ClientLibrary(clientNumber, clientPublicKey);
+        clientLibrary.getOneNAtomicRegister().restoreWts(wts);
+
+        byte[] record;
+        while ((record = readNextRecord(input)) != null) {
+            clientLibrary.restoreAnnouncement(decodeAnnouncement(record));
+        }
+
+        return clientLibrary;
+    }
+
+    public static void writeGeneralShard(DataOutputStream output, GeneralBoard generalBoard) throws IOException {
+
+        writeHeader(output);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream board = new DataOutputStream(bytes);
+        board.writeByte(GENERAL_BOARD);
+        board.writeInt(generalBoard.getnNRegularRegister().getWts());
+        writeRecord(output, bytes.toByteArray());
+
+        for (int wts : generalBoard.getExistingReferences()) {
+            writeRecord(output, encodeGeneralAnnouncement(generalBoard.getAnnouncements().get(wts).getQuartet()));
+        }
+    }
+
+    public static GeneralBoard readGeneralShard(DataInputStream input) throws IOException {
+
+        readHeader(input);
+
+        DataInputStream board = new DataInputStream(new ByteArrayInputStream(readRecord(input)));
+        if (board.readByte() != GENERAL_BOARD) {
+            throw new IOException("Not a general board shard");
+        }
+
+        GeneralBoard generalBoard = new GeneralBoard();
+        generalBoard.getnNRegularRegister().restoreWts(board.readInt());
+
+        byte[] record;
+        while ((record = readNextRecord(input)) != null) {
+            generalBoard.restoreAnnouncement(decodeGeneralAnnouncement(record));
+        }
+
+        return generalBoard;
+    }
+
+    public static void writeSegmentHeader(DataOutputStream output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeShort(SEGMENT_VERSION);
+    }
+
+    public static void readSegmentHeader(ByteBuffer input) throws IOException {
+
+        if (input.remaining() < 6 || input.getInt() != MAGIC) {
+            throw new IOException("Not an announcement segment");
+        }
+
+        short version = input.getShort();
+        if (version != SEGMENT_VERSION) {
+            throw new IOException("Unsupported announcement segment version " + version);
+        }
+    }
+
+    public static byte[] encodeClientBoard(String clientNumber, PublicKey clientPublicKey) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(CLIENT_BOARD);
+        output.writeUTF(clientNumber);
+        writePublicKey(output, clientPublicKey);
+
+        return bytes.toByteArray();
+    }
+
+    public static Pair<String, PublicKey> decodeClientBoard(byte[] record) throws IOException, GeneralSecurityException {
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+        if (input.readByte() != CLIENT_BOARD) {
+            throw new IOException("Not a client board segment");
+        }
+
+        String clientNumber = input.readUTF();
+        return new Pair<>(clientNumber, readPublicKey(input));
+    }
+
+    public static byte[] encodeGeneralBoard() {
+        return new byte[] {GENERAL_BOARD};
+    }
+
+    public static boolean isGeneralBoard(byte[] record) {
+        return record.length > 0 && record[0] == GENERAL_BOARD;
+    }
+
+    public static byte[] encodeAnnouncement(Quartet<Integer, String, byte[], ArrayList<Integer>> announcement) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        output.writeInt(announcement.getValue0());
+        writeBytes(output, announcement.getValue1().getBytes("UTF-8"));
+        writeBytes(output, announcement.getValue2());
+        writeReferences(output, announcement.getValue3());
+
+        return bytes.toByteArray();
+    }
+
+    public static Announcement decodeAnnouncement(byte[] record) throws IOException {
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+
+        int wts = input.readInt();
+        String message = new String(readBytes(input), "UTF-8");
+        byte[] signature = readBytes(input);
+
+        return new Announcement(new Triplet<>(wts, message, signature), readReferences(input));
+    }
+
+    public static byte[] encodeGeneralAnnouncement(Quintet<Integer, String, String, byte[], ArrayList<Integer>> announcement) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        output.writeInt(announcement.getValue0());
+        output.writeUTF(announcement.getValue2());
+        writeBytes(output, announcement.getValue1().getBytes("UTF-8"));
+        writeBytes(output, announcement.getValue3());
+        writeReferences(output, announcement.getValue4());
+
+        return bytes.toByteArray();
+    }
+
+    public static Announcement decodeGeneralAnnouncement(byte[] record) throws IOException {
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+
+        int wts = input.readInt();
+        String clientNumber = input.readUTF();
+        String message = new String(readBytes(input), "UTF-8");
+        byte[] signature = readBytes(input);
+
+        return new Announcement(new Quartet<>(wts, message, clientNumber, signature), readReferences(input));
+    }
+
+    public static void writeRecord(DataOutputStream output, byte[] payload) throws IOException {
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        output.writeInt(payload.length);
+        output.write(payload);
+        output.writeInt((int) crc.getValue());
+    }
+
+    public static byte[] readRecord(DataInputStream input) throws IOException {
+
+        int length = input.readInt();
+        if (length < 0 || length > input.available()) {
+            throw new IOException("Torn record");
+        }
+
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (input.readInt() != (int) crc.getValue()) {
+            throw new IOException("Record checksum mismatch");
+        }
+
+        return payload;
+    }
+
+    public static byte[] readRecord(ByteBuffer input) throws IOException {
+
+        if (input.remaining() < 4) {
+            throw new IOException("Torn record");
+        }
+
+        int length = input.getInt();
+        if (length < 0 || length > input.remaining() - 4) {
+            throw new IOException("Torn record");
+        }
+
+        byte[] payload = new byte[length];
+        input.get(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (input.getInt() != (int) crc.getValue()) {
+            throw new IOException("Record checksum mismatch");
+        }
+
+        return payload;
+    }
+
+    // Returns null at a clean end of file
+    private static byte[] readNextRecord(DataInputStream input) throws IOException {
+
+        try {
+            return readRecord(input);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static void writeHeader(DataOutputStream output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeShort(VERSION);
+    }
+
+    private static void readHeader(DataInputStream input) throws IOException {
+
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a state shard");
+        }
+
+        short version = input.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported state shard version " + version);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] value) throws IOException {
+        writeVarInt(output, value.length);
+        output.write(value);
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        byte[] value = new byte[readVarInt(input)];
+        input.readFully(value);
+        return value;
+    }
+
+    private static void writeReferences(DataOutputStream output, ArrayList<Integer> references) throws IOException {
+        writeVarInt(output, references.size());
+        for (int reference : references) {
+            writeVarInt(output, reference);
+        }
+    }
+
+    private static ArrayList<Integer> readReferences(DataInputStream input) throws IOException {
+        int size = readVarInt(input);
+        ArrayList<Integer> references = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            references.add(readVarInt(input));
+        }
+        return references;
+    }
+
+    public static void writePublicKey(DataOutputStream output, PublicKey publicKey) throws IOException {
+        output.writeUTF(publicKey.getAlgorithm());
+        writeBytes(output, publicKey.getEncoded());
+    }
+
+    public static PublicKey readPublicKey(DataInputStream input) throws IOException, GeneralSecurityException {
+        String algorithm = input.readUTF();
+        return KeyFactory.getInstance(algorithm).generatePublic(new X509EncodedKeySpec(readBytes(input)));
+    }
+
+    private static void writeVarInt(DataOutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = input.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,108 @@
+package sec.project.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.javatuples.Quartet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+public class AnnouncementStoreTest
+{
+    File directory;
+
+    @Before
+    public void populateForTest() {
+        this.directory = new File("target/store-test");
+        this.directory.mkdirs();
+    }
+
+    @Test
+    public void hotWindowKeepsNewestAnnouncementsTest() throws Exception {
+
+        AnnouncementStore store = new AnnouncementStore();
+        for (int wts = 1; wts <= 500; wts++) {
+            store.put(new Announcement(new Quartet<>(wts, "message" + wts + "| ", "1", new byte[] {1, 2, 3}), new ArrayList<Integer>()));
+        }
+
+        store.attach(AnnouncementSegment.create(new File(this.directory, "general.seg"), StateCodec.encodeGeneralBoard()));
+        store.persist();
+
+        assertEquals(500, store.size());
+        assertEquals(128, store.getResidentCount());
+
+        assertEquals("message500| ", store.get(500).getQuartet().getValue1());
+        assertEquals(1, store.getHits());
+
+        assertEquals("message1| ", store.get(1).getQuartet().getValue1());
+        assertEquals(1, store.getMisses());
+        assertEquals(128, store.getResidentCount());
+
+        assertNull(store.get(501));
+        store.close();
+
+        //a reopened segment starts cold and faults the newest announcements back in
+        AnnouncementStore reopened = new AnnouncementStore();
+        reopened.attach(AnnouncementSegment.open(new File(this.directory, "general.seg")));
+        assertEquals(0, reopened.getResidentCount());
+        reopened.get(500);
+        reopened.get(500);
+        assertEquals(1, reopened.getMisses());
+        assertEquals(1, reopened.getHits());
+        reopened.close();
+    }
+
+    // A torn last append is dropped on open, a corrupt record before it refuses to load
+    @Test
+    public void onlyTornTailIsTruncatedTest() throws Exception {
+
+        File file = new File(this.directory, "general.seg");
+        AnnouncementStore store = new AnnouncementStore();
+        for (int wts = 1; wts <= 3; wts++) {
+            store.put(new Announcement(new Quartet<>(wts, "message" + wts + "| ", "1", new byte[] {1, 2, 3}), new ArrayList<Integer>()));
+        }
+        store.attach(AnnouncementSegment.create(file, StateCodec.encodeGeneralBoard()));
+        store.persist();
+        long size = store.getSegment().getSizeInBytes();
+        store.close();
+
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.setLength(size - 2);
+        }
+        AnnouncementSegment segment = AnnouncementSegment.open(file);
+        assertEquals(2, segment.size());
+        long truncated = segment.getSizeInBytes();
+        segment.close();
+
+        //flip the last payload byte of the first announcement, all three records have the same length
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            long first = truncated - (size - truncated) - 4 - 1;
+            raw.seek(first);
+            int value = raw.read();
+            raw.seek(first);
+            raw.write(value ^ 0xFF);
+        }
+        try {
+            AnnouncementSegment.open(file);
+            fail("A corrupt record before the tail must not be truncated");
+        } catch (IOException e) {
+            assertEquals(truncated, file.length());
+        }
+    }
+
+    @After
+    public void cleanState() {
+        for (File file : this.directory.listFiles()) {
+            file.delete();
+        }
+        this.directory.delete();
+    }
+
+}
@@ -0,0 +1,254 @@
+package sec.project.server;
+
+import org.javatuples.Triplet;
+import sec.project.library.AsymmetricCrypto;
+import sec.project.library.ClientAPI;
+import sec.project.library.SignedPayload;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the double echo broadcast of board writes between replicas in one process and reports how many
+ * writes are delivered per second as more clients post at once, how long a write takes to be delivered
+ * everywhere (p50 and p99), and how many messages the replicas' batches carried. Each setting is run with
+ * batches of one message, as if every ECHO and READY were sent alone, and with batches of the given size.
+ * Replicas call each other through RMI over loopback, or directly with "direct", in which case only the
+ * protocol and the work spent authenticating its messages is measured. Replicas agree on their pairwise MAC
+ * keys, and clients sign their announcements, before the clock starts. Not a unit test, run it by hand:
+ *
+ *   java -cp ... sec.project.server.BroadcastBenchmark [replicas, e.g. 4,7] [writes per board] [boards, e.g. 1,4,16]
+ *       [batch size] [batch window us] [rmi|direct]
+ */
+public class BroadcastBenchmark
+{
+    public static void main(String[] args) throws Exception {
+
+        String sizes = args.length > 0 ? args[0] : "4,7";
+        int writes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        String boardCounts = args.length > 2 ? args[2] : "1,4,16";
+        int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        long batchMicros = args.length > 4 ? Long.parseLong(args[4]) : 200;
+        boolean rmi = args.length <= 5 || !"direct".equals(args[5]);
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+
+        int maxBoards = 0;
+        for (String boards : boardCounts.split(",")) {
+            maxBoards = Math.max(maxBoards, Integer.parseInt(boards.trim()));
+        }
+        KeyPair[] clientKeys = new KeyPair[maxBoards];
+        for (int i = 0; i < maxBoards; i++) {
+            clientKeys[i] = generator.generateKeyPair();
+        }
+
+        System.out.println("replicas | batch | boards | writes | failed | ms | writes/s | p50 ms | p99 ms | messages/batch");
+
+        for (String size : sizes.split(",")) {
+
+            int replicas = Integer.parseInt(size.trim());
+            ReplicaKeys[] replicaKeys = new ReplicaKeys[replicas];
+            for (int i = 0; i < replicas; i++) {
+                KeyPair keyPair = generator.generateKeyPair();
+                replicaKeys[i] = new ReplicaKeys(keyPair.getPublic(), keyPair.getPrivate());
+            }
+            for (int i = 0; i < replicas; i++) {
+                for (int j = i + 1; j < replicas; j++) {
+                    replicaKeys[i].exchange(replicaKeys[j].getServerPublicKey(), new LocalReplica(replicaKeys[j]));
+                }
+            }
+
+            for (int batch : new int[] {1, batchSize}) {
+                for (String count : boardCounts.split(",")) {
+
+                    int boards = Integer.parseInt(count.trim());
+                    Cluster cluster = new Cluster(replicaKeys, clientKeys, boards, batch, batch == 1 ? 0 : batchMicros, rmi);
+
+                    //warm up
+                    cluster.sign(2 + writes);
+                    cluster.run(2, 1, new ArrayList<Long>());
+
+                    List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+                    long start = System.nanoTime();
+                    int failed = cluster.run(writes, 3, latencies);
+                    long elapsed = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+                    Collections.sort(latencies);
+                    System.out.println(replicas + " | " + batch + " | " + boards + " | " + writes * boards + " | " + failed + " | " + elapsed
+                            + " | " + String.format("%.1f", writes * boards * 1000.0 / elapsed)
+                            + " | " + String.format("%.1f", percentile(latencies, 50)) + " | " + String.format("%.1f", percentile(latencies, 99))
+                            + " | " + String.format("%.1f", cluster.meanBatchSize()));
+                    cluster.shutdown();
+                }
+            }
+        }
+
+        System.exit(0);
+    }
+
+    private static double percentile(List<Long> latencies, int percentile) {
+        if (latencies.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * latencies.size()) - 1;
+        return latencies.get(Math.max(0, index)) / 1000000.0;
+    }
+
+    // Every replica with its instance table, peer dispatcher and a board for each client
+    private static class Cluster {
+
+        private ReplicaKeys[] replicaKeys;
+        private KeyPair[] clientKeys;
+        private PeerDispatcher[] peerDispatchers;
+        private BroadcastInstances[] broadcasts;
+        private ClientLibrary[][] clientLibraries;
+        private List<Map<Long, ClientAPI>> stubs;
+        private List<LocalReplica> exported;
+        private byte[][][] signatures;
+
+        private Cluster(ReplicaKeys[] replicaKeys, KeyPair[] clientKeys, int boards, int batchSize, long batchMicros, boolean rmi) throws RemoteException {
+
+            int replicas = replicaKeys.length;
+            this.replicaKeys = replicaKeys;
+            this.clientKeys = clientKeys;
+            this.peerDispatchers = new PeerDispatcher[replicas];
+            this.broadcasts = new BroadcastInstances[replicas];
+            this.clientLibraries = new ClientLibrary[replicas][boards];
+            this.stubs = new ArrayList<>();
+            this.exported = new ArrayList<>();
+
+            List<Map<Long, ClientLibrary>> clients = new ArrayList<>();
+            for (int i = 0; i < replicas; i++) {
+                this.peerDispatchers[i] = new PeerDispatcher(8000 + i, replicaKeys[i], batchSize, batchMicros);
+                this.broadcasts[i] = new BroadcastInstances(replicaKeys[i], this.peerDispatchers[i]);
+                this.stubs.add(new HashMap<Long, ClientAPI>());
+                clients.add(new HashMap<Long, ClientLibrary>());
+                for (int board = 0; board < boards; board++) {
+                    this.clientLibraries[i][board] = new ClientLibrary(String.valueOf(board + 1), clientKeys[board].getPublic());
+                    clients.get(i).put(this.clientLibraries[i][board].getClientId(), this.clientLibraries[i][board]);
+                }
+            }
+            for (int i = 0; i < replicas; i++) {
+                for (int j = 0; j < replicas; j++) {
+                    if (i != j) {
+                        LocalReplica replica = new LocalReplica(this.broadcasts[j], clients.get(j), this.stubs.get(j), replicaKeys[j]);
+                        if (rmi) {
+                            this.stubs.get(i).put(replicaKeys[j].getServerId(), (ClientAPI) UnicastRemoteObject.exportObject(replica, 0));
+                            this.exported.add(replica);
+                        } else {
+                            this.stubs.get(i).put(replicaKeys[j].getServerId(), replica);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void sign(int writes) throws Exception {
+            this.signatures = new byte[this.clientLibraries[0].length][writes + 1][];
+            for (int board = 0; board < this.signatures.length; board++) {
+                for (int wts = 1; wts <= writes; wts++) {
+                    this.signatures[board][wts] = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post(message(board, wts), wts),
+                            this.clientKeys[board].getPrivate());
+                }
+            }
+        }
+
+        private static String message(int board, int wts) {
+            return "announcement " + wts + " on board " + (board + 1) + "| ";
+        }
+
+        // Every board writes one announcement after the other, all boards at once
+        private int run(final int writes, final int firstWts, final List<Long> latencies) throws InterruptedException {
+
+            final AtomicInteger failed = new AtomicInteger();
+            Thread[] threads = new Thread[this.clientLibraries[0].length];
+
+            for (int i = 0; i < threads.length; i++) {
+                final int board = i;
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int wts = firstWts; wts < firstWts + writes; wts++) {
+                                long start = System.nanoTime();
+                                if (!broadcast(board, wts)) {
+                                    failed.incrementAndGet();
+                                }
+                                latencies.add(System.nanoTime() - start);
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            return failed.get();
+        }
+
+        // One write as every replica sees it: each starts the broadcast of the client's value and waits for delivery
+        private boolean broadcast(final int board, final int wts) throws Exception {
+
+            final Triplet<Integer, String, byte[]> value = new Triplet<>(wts, message(board, wts), this.signatures[board][wts]);
+
+            int replicas = this.replicaKeys.length;
+            final AtomicInteger delivered = new AtomicInteger();
+            Thread[] threads = new Thread[replicas];
+            for (int i = 0; i < replicas; i++) {
+                final int replica = i;
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            ClientLibrary clientLibrary = clientLibraries[replica][board];
+                            DoubleEchoBroadcaster broadcaster = broadcasts[replica].get(clientLibrary, wts, stubs.get(replica));
+                            if (broadcaster.write(value) != null) {
+                                delivered.incrementAndGet();
+                            }
+                            broadcasts[replica].release(clientLibrary, wts, broadcaster);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            return delivered.get() == replicas;
+        }
+
+        private double meanBatchSize() {
+            double total = 0;
+            for (PeerDispatcher peerDispatcher : this.peerDispatchers) {
+                total += peerDispatcher.getMeanBatchSize();
+            }
+            return total / this.peerDispatchers.length;
+        }
+
+        private void shutdown() throws NoSuchObjectException {
+            for (PeerDispatcher peerDispatcher : this.peerDispatchers) {
+                peerDispatcher.shutdown();
+            }
+            for (LocalReplica replica : this.exported) {
+                UnicastRemoteObject.unexportObject(replica, true);
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package sec.project.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import sec.project.library.AsymmetricCrypto;
+import sec.project.library.ClientAPI;
+import sec.project.library.SignedPayload;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BroadcastInstancesTest
+{
+    static final int REPLICAS = 4;
+
+    KeyPair client;
+    ReplicaKeys[] replicaKeys;
+    PeerDispatcher[] peerDispatchers;
+    BroadcastInstances[] broadcasts;
+    ClientLibrary[] clientLibraries;
+    List<Map<Long, ClientAPI>> stubs;
+
+    @Before
+    public void populateForTest() throws Exception {
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        this.client = generator.generateKeyPair();
+
+        this.replicaKeys = new ReplicaKeys[REPLICAS];
+        for (int i = 0; i < REPLICAS; i++) {
+            KeyPair keyPair = generator.generateKeyPair();
+            this.replicaKeys[i] = new ReplicaKeys(keyPair.getPublic(), keyPair.getPrivate());
+        }
+        for (int i = 0; i < REPLICAS; i++) {
+            for (int j = i + 1; j < REPLICAS; j++) {
+                this.replicaKeys[i].exchange(this.replicaKeys[j].getServerPublicKey(), new LocalReplica(this.replicaKeys[j]));
+            }
+        }
+
+        this.peerDispatchers = new PeerDispatcher[REPLICAS];
+        this.broadcasts = new BroadcastInstances[REPLICAS];
+        this.clientLibraries = new ClientLibrary[REPLICAS];
+        this.stubs = new ArrayList<>();
+        for (int i = 0; i < REPLICAS; i++) {
+            this.peerDispatchers[i] = new PeerDispatcher(9100 + i, this.replicaKeys[i]);
+            this.broadcasts[i] = new BroadcastInstances(this.replicaKeys[i], this.peerDispatchers[i]);
+            this.clientLibraries[i] = new ClientLibrary("1", this.client.getPublic());
+            this.stubs.add(new HashMap<Long, ClientAPI>());
+        }
+        for (int i = 0; i < REPLICAS; i++) {
+            for (int j = 0; j < REPLICAS; j++) {
+                if (i != j) {
+                    this.stubs.get(i).put(this.replicaKeys[j].getServerId(),
+                            new LocalReplica(this.broadcasts[j], Collections.singletonMap(this.clientLibraries[j].getClientId(),
+                                    this.clientLibraries[j]), this.stubs.get(j), this.replicaKeys[j]));
+                }
+            }
+        }
+    }
+
+    @After
+    public void cleanUp() {
+        for (PeerDispatcher peerDispatcher : this.peerDispatchers) {
+            peerDispatcher.shutdown();
+        }
+    }
+
+    // Two posts of one client are in flight at once, and the last replica only starts them after the others
+    // have already echoed and readied both, so it must have kept what it received early
+    @Test
+    public void concurrentPostsAndEarlyEchoesAreDeliveredTest() throws Exception {
+
+        final List<String> acks = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<>();
+
+        for (int replica = 0; replica < REPLICAS - 1; replica++) {
+            for (int wts = 1; wts <= 2; wts++) {
+                threads.add(post(replica, wts, acks));
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        threads.clear();
+        for (int wts = 1; wts <= 2; wts++) {
+            threads.add(post(REPLICAS - 1, wts, acks));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(Collections.nCopies(2 * REPLICAS, "ACK"), acks);
+        for (int i = 0; i < REPLICAS; i++) {
+            assertEquals(2, this.clientLibraries[i].getAnnouncements().size());
+            //each post added the value its own round delivered
+            for (int wts = 1; wts <= 2; wts++) {
+                assertEquals("announcement " + wts + "| ", this.clientLibraries[i].getAnnouncements().get(wts).getTriplet().getValue1());
+            }
+            assertEquals(2, this.clientLibraries[i].getOneNAtomicRegister().getWts());
+            //late messages for a delivered round do not open it again
+            assertEquals(0, this.broadcasts[i].size());
+        }
+    }
+
+    // The client sent the last replica another value than the rest, ECHO and READY only name the others' by its
+    // digest, so the last replica has to fetch it from a peer to deliver it
+    @Test
+    public void missingValueIsFetchedFromPeerTest() throws Exception {
+
+        final List<String> acks = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<>();
+        for (int replica = 0; replica < REPLICAS - 1; replica++) {
+            threads.add(post(replica, 1, "announcement 1| ", acks));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        post(REPLICAS - 1, 1, "another announcement 1| ", acks).join();
+
+        assertEquals(Collections.nCopies(REPLICAS, "ACK"), acks);
+        for (int i = 0; i < REPLICAS; i++) {
+            assertEquals("announcement 1| ", this.clientLibraries[i].getAnnouncements().get(1).getTriplet().getValue1());
+        }
+    }
+
+    // A peer can name any wts, only those near the newest on the board open a round
+    @Test
+    public void roundsFarFromBoardAreNotOpenedTest() throws Exception {
+
+        assertNull(this.broadcasts[0].get(this.clientLibraries[0], Integer.MAX_VALUE, this.stubs.get(0)));
+        assertNull(this.broadcasts[0].get(this.clientLibraries[0], -1000, this.stubs.get(0)));
+        assertEquals(0, this.broadcasts[0].size());
+        assertNotNull(this.broadcasts[0].get(this.clientLibraries[0], 1, this.stubs.get(0)));
+        assertEquals(1, this.broadcasts[0].size());
+
+        //a client posting that far ahead is told so, not that it is ignored
+        List<String> acks = Collections.synchronizedList(new ArrayList<String>());
+        post(0, 1000, acks).join();
+        assertEquals(Collections.singletonList("OUTOFWINDOW"), acks);
+    }
+
+    private Thread post(int replica, int wts, List<String> acks) throws Exception {
+        return post(replica, wts, "announcement " + wts + "| ", acks);
+    }
+
+    private Thread post(final int replica, final int wts, final String message, final List<String> acks) throws Exception {
+
+        final byte[] signature = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post(message, wts), this.client.getPrivate());
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    acks.add(clientLibraries[replica].write(wts, message, signature, broadcasts[replica], stubs.get(replica)));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
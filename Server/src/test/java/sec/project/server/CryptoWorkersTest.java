@@ -0,0 +1,78 @@
+package sec.project.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class CryptoWorkersTest
+{
+    // A peer's commit and abort batches must be applied in the order it sent them, however many workers are free
+    @Test
+    public void batchesOfOneSenderKeepTheirOrderTest() throws Exception {
+
+        CryptoWorkers cryptoWorkers = new CryptoWorkers(0, 8, 1024);
+        final List<Integer> applied = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(500);
+
+        for (int i = 0; i < 500; i++) {
+            final int batch = i;
+            cryptoWorkers.execute(1, new Runnable() {
+                @Override
+                public void run() {
+                    applied.add(batch);
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, applied.get(i).intValue());
+        }
+
+        cryptoWorkers.shutdown();
+    }
+
+    // The worker is held while more batches arrive than the sender's queue holds, none of them may be lost
+    @Test
+    public void fullQueueMakesSenderWaitTest() throws Exception {
+
+        final CryptoWorkers cryptoWorkers = new CryptoWorkers(0, 1, 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(20);
+
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 20; i++) {
+                    cryptoWorkers.execute(1, new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            done.countDown();
+                        }
+                    });
+                }
+            }
+        });
+        sender.start();
+
+        Thread.sleep(200);
+        release.countDown();
+        sender.join();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        cryptoWorkers.shutdown();
+    }
+}
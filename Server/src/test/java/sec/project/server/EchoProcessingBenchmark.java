@@ -0,0 +1,130 @@
+package sec.project.server;
+
+import org.javatuples.Triplet;
+import sec.project.library.ClientAPI;
+import sec.project.library.KeyRegistry;
+import sec.project.library.ReplicaMessage;
+import sec.project.library.SignedPayload;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Feeds one replica the ECHO and READY messages of every peer for a burst of writes on many boards, as
+ * they arrive during a burst of posts, and reports how many messages it processes per second with 1, 2, 4...
+ * crypto workers. Not a unit test, run it by hand:
+ *
+ *   java -cp ... sec.project.server.EchoProcessingBenchmark [boards] [replicas] [max workers]
+ */
+public class EchoProcessingBenchmark
+{
+    public static void main(String[] args) throws Exception {
+
+        int boards = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int replicas = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int maxWorkers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair client = generator.generateKeyPair();
+
+        ReplicaKeys[] replicaKeys = new ReplicaKeys[replicas];
+        for (int i = 0; i < replicas; i++) {
+            KeyPair keyPair = generator.generateKeyPair();
+            replicaKeys[i] = new ReplicaKeys(keyPair.getPublic(), keyPair.getPrivate());
+        }
+        for (int i = 0; i < replicas; i++) {
+            for (int j = i + 1; j < replicas; j++) {
+                replicaKeys[i].exchange(replicaKeys[j].getServerPublicKey(), new LocalReplica(replicaKeys[j]));
+            }
+        }
+
+        //the replica under test is the first one, its peers drop what it sends them
+        Map<Long, ClientAPI> stubs = new HashMap<>();
+        for (int i = 1; i < replicas; i++) {
+            stubs.put(replicaKeys[i].getServerId(), new LocalReplica(replicaKeys[i]));
+        }
+
+        //warm up
+        run(client, replicaKeys, stubs, boards, 1);
+
+        System.out.println("boards | replicas | workers | messages | ms | messages/s");
+        for (int workers = 1; workers <= maxWorkers; workers *= 2) {
+
+            long start = System.nanoTime();
+            int messages = run(client, replicaKeys, stubs, boards, workers);
+            long elapsed = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+            System.out.println(boards + " | " + replicas + " | " + workers + " | " + messages + " | " + elapsed
+                    + " | " + String.format("%.0f", messages * 1000.0 / elapsed));
+        }
+
+        System.exit(0);
+    }
+
+    private static int run(KeyPair client, ReplicaKeys[] replicaKeys, Map<Long, ClientAPI> stubs, int boards, int workers) throws Exception {
+
+        final List<Runnable> messages = new ArrayList<>();
+        PeerDispatcher peerDispatcher = new PeerDispatcher(8000, replicaKeys[0]);
+        for (int board = 0; board < boards; board++) {
+
+            String message = "announcement on board " + board + "| ";
+            final Triplet<Integer, String, byte[]> value = new Triplet<>(1, message, new byte[256]);
+            final PublicKey clientPublicKey = client.getPublic();
+            final long clientId = KeyRegistry.fingerprint(clientPublicKey);
+            final DoubleEchoBroadcaster broadcaster = new DoubleEchoBroadcaster(
+                    new ClientLibrary(String.valueOf(board), clientPublicKey), 1, stubs, replicaKeys[0], peerDispatcher);
+            final byte[] digest = DoubleEchoBroadcaster.digest(value).array();
+
+            //what each peer sends is authenticated by that peer, before the clock starts; each message is a batch
+            //of its own, so every one of them is checked on its own as it would be without batching
+            final ReplicaKeys receiver = replicaKeys[0];
+            for (int i = 1; i < replicaKeys.length; i++) {
+                final long senderId = replicaKeys[i].getServerId();
+                for (final ReplicaMessage replicaMessage : new ReplicaMessage[] {
+                        ReplicaMessage.echo(clientId, 1, digest), ReplicaMessage.ready(clientId, 1, digest)}) {
+
+                    final List<ReplicaMessage> batch = Collections.singletonList(replicaMessage);
+                    final byte[] mac = replicaKeys[i].authenticate(receiver.getServerId(), SignedPayload.batch(batch));
+                    messages.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                if (receiver.validate(mac, senderId, SignedPayload.batch(batch))) {
+                                    broadcaster.deliver(replicaMessage, senderId);
+                                }
+                            } catch (Exception e) {
+                                e.printStackTrace();
+                            }
+                        }
+                    });
+                }
+            }
+        }
+
+        final CountDownLatch processed = new CountDownLatch(messages.size());
+        //every message is queued up front, so the queue holds them all
+        CryptoWorkers cryptoWorkers = new CryptoWorkers(8000, workers, messages.size());
+        for (final Runnable message : messages) {
+            cryptoWorkers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    message.run();
+                    processed.countDown();
+                }
+            });
+        }
+
+        processed.await();
+        cryptoWorkers.shutdown();
+        peerDispatcher.shutdown();
+        return messages.size();
+    }
+}
@@ -0,0 +1,126 @@
+package sec.project.server;
+
+import org.javatuples.Triplet;
+import sec.project.library.Acknowledge;
+import sec.project.library.ClientAPI;
+import sec.project.library.ReadView;
+import sec.project.library.ReplicaKey;
+import sec.project.library.ReplicaMessage;
+import sec.project.library.SignedPayload;
+import sec.project.library.StateTransfer;
+
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// A replica reached without RMI by the benchmarks and tests, it only takes part in the broadcast. It checks the
+// batches sent to it like a server does and hands their ECHO and READY messages to the round of its instance table
+// they belong to. Built with its keys only, it just answers the key exchange and drops what it is sent.
+class LocalReplica implements ClientAPI {
+
+    private BroadcastInstances broadcasts;
+    private Map<Long, ClientLibrary> clients;
+    private Map<Long, ClientAPI> stubs;
+    private ReplicaKeys replicaKeys;
+
+    LocalReplica(ReplicaKeys replicaKeys) {
+        this.replicaKeys = replicaKeys;
+    }
+
+    LocalReplica(BroadcastInstances broadcasts, Map<Long, ClientLibrary> clients, Map<Long, ClientAPI> stubs, ReplicaKeys replicaKeys) {
+        this.broadcasts = broadcasts;
+        this.clients = clients;
+        this.stubs = stubs;
+        this.replicaKeys = replicaKeys;
+    }
+
+    @Override
+    public ReplicaKey exchangeReplicaKey(ReplicaKey replicaKey, PublicKey serverPublicKey) throws RemoteException {
+        try {
+            return this.replicaKeys.accept(replicaKey, serverPublicKey);
+        } catch (Exception e) {
+            throw new RemoteException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void deliverBatch(List<ReplicaMessage> messages, byte[] mac, long serverId) throws RemoteException {
+        if (this.broadcasts == null) {
+            return;
+        }
+        try {
+            if (!this.replicaKeys.validate(mac, serverId, SignedPayload.batch(messages))) {
+                throw new RemoteException("Batch failed authentication");
+            }
+            for (ReplicaMessage message : messages) {
+                if (message.getType() == ReplicaMessage.COMMIT) {
+                    continue;
+                }
+                DoubleEchoBroadcaster broadcaster = this.broadcasts.get(this.clients.get(message.getClientId()),
+                        message.getWts(), this.stubs);
+                if (broadcaster != null) {
+                    broadcaster.deliver(message, serverId);
+                }
+            }
+        } catch (RemoteException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RemoteException(e.getMessage());
+        }
+    }
+
+    @Override
+    public Triplet<Integer, String, byte[]> fetchValue(long clientId, int wts, byte[] digest, byte[] mac, long serverId) throws RemoteException {
+        try {
+            if (this.broadcasts == null || !this.replicaKeys.validate(mac, serverId, SignedPayload.fetchValue(clientId, wts, digest))) {
+                return null;
+            }
+            DoubleEchoBroadcaster broadcaster = this.broadcasts.find(clientId, wts);
+            if (broadcaster != null && broadcaster.getValue(digest) != null) {
+                return broadcaster.getValue(digest);
+            }
+            Announcement announcement = this.clients.get(clientId).getAnnouncements().get(wts);
+            if (announcement == null) {
+                return null;
+            }
+            Triplet<Integer, String, byte[]> value = new Triplet<>(announcement.getTriplet().getValue0(),
+                    announcement.getTriplet().getValue1(), announcement.getTriplet().getValue2());
+            return DoubleEchoBroadcaster.digest(value).equals(ByteBuffer.wrap(digest)) ? value : null;
+        } catch (Exception e) {
+            throw new RemoteException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void register(PublicKey clientPublicKey, String clientId, byte[] signature) { throw new UnsupportedOperationException(); }
+
+    @Override
+    public Acknowledge post(long clientId, String message, int wts, byte[] signature, boolean isWriteBack, long senderId) { throw new UnsupportedOperationException(); }
+
+    @Override
+    public Acknowledge postGeneral(long clientId, String message, int wts, byte[] signature, Map<Long, byte[]> serverMacs, long serverId) { throw new UnsupportedOperationException(); }
+
+    @Override
+    public ReadView read(long toReadClientId, int number, int rid, byte[] signature, long clientId) { throw new UnsupportedOperationException(); }
+
+    @Override
+    public ReadView readGeneral(int number, int rid, byte[] signature, long clientId) { throw new UnsupportedOperationException(); }
+
+    @Override
+    public Acknowledge login(PublicKey clientPublicKey, byte[] sessionKey, long nonce, byte[] signature) { throw new UnsupportedOperationException(); }
+
+    @Override
+    public StateTransfer catchUp(Map<Long, Integer> clientWts, int generalWts, long nonce, byte[] mac, long serverId) { throw new UnsupportedOperationException(); }
+
+    @Override
+    public Map<PublicKey, byte[]> merkleRoots(long nonce, byte[] mac, long serverId) { throw new UnsupportedOperationException(); }
+
+    @Override
+    public ArrayList<byte[]> merkleDigests(PublicKey clientPublicKey, int level, ArrayList<Integer> nodes, long nonce, byte[] mac, long serverId) { throw new UnsupportedOperationException(); }
+
+    @Override
+    public StateTransfer fetchLeaves(PublicKey clientPublicKey, ArrayList<Integer> leaves, long nonce, byte[] mac, long serverId) { throw new UnsupportedOperationException(); }
+}
@@ -0,0 +1,85 @@
+package sec.project.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class OperationLogTest
+{
+    File directory;
+
+    @Before
+    public void populateForTest() {
+        this.directory = new File("target/oplog-test");
+        this.directory.mkdirs();
+    }
+
+    @Test
+    public void concurrentAppendsAreBatchedTest() throws Exception {
+
+        final OperationLog operationLog = new OperationLog(this.directory, 9000, 1);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 1; i <= 50; i++) {
+            final int wts = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        operationLog.append(LogRecord.generalAnnouncement(wts, "message" + wts + "| ", "1", new byte[] {1, 2, 3}));
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(50, operationLog.getFlushedRecordCount());
+        //appends released together must share syncs
+        assertTrue(operationLog.getFlushCount() < 50);
+        assertTrue(operationLog.getLargestBatchSize() > 1);
+        operationLog.close();
+
+        assertEquals(50, OperationLog.readSegments(this.directory, 9000, 1).size());
+    }
+
+    @Test
+    public void rollStartsNewSegmentTest() throws Exception {
+
+        OperationLog operationLog = new OperationLog(this.directory, 9000, 1);
+        operationLog.append(LogRecord.generalAnnouncement(1, "first| ", "1", new byte[] {1}));
+        int generation = operationLog.roll();
+        operationLog.append(LogRecord.generalAnnouncement(2, "second| ", "1", new byte[] {2}));
+        operationLog.close();
+
+        assertEquals(2, generation);
+        assertEquals(1, OperationLog.readSegments(this.directory, 9000, generation).size());
+        assertEquals(2, OperationLog.readSegments(this.directory, 9000, 1).size());
+    }
+
+    @After
+    public void cleanState() {
+        for (File file : this.directory.listFiles()) {
+            file.delete();
+        }
+        this.directory.delete();
+    }
+
+}
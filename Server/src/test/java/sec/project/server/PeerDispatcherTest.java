@@ -0,0 +1,75 @@
+package sec.project.server;
+
+import static org.junit.Assert.assertTrue;
+
+import org.javatuples.Quartet;
+import org.junit.Test;
+import sec.project.library.Acknowledge;
+import sec.project.library.ReplicaMessage;
+import sec.project.library.SignedPayload;
+
+import java.rmi.RemoteException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PeerDispatcherTest
+{
+    // The peer had not seen the client's post when the forward arrived, so it only answers the forward once its own
+    // write of the value commits, and the commit this replica sends it must not wait behind that call
+    @Test
+    public void commitIsNotHeldBehindForwardTest() throws Exception {
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair senderPair = generator.generateKeyPair();
+        KeyPair peerPair = generator.generateKeyPair();
+        final ReplicaKeys senderKeys = new ReplicaKeys(senderPair.getPublic(), senderPair.getPrivate());
+        final ReplicaKeys peerKeys = new ReplicaKeys(peerPair.getPublic(), peerPair.getPrivate());
+        senderKeys.exchange(peerPair.getPublic(), new LocalReplica(peerKeys));
+
+        final CountDownLatch forwarded = new CountDownLatch(1);
+        final CountDownLatch committed = new CountDownLatch(1);
+        LocalReplica peer = new LocalReplica(peerKeys) {
+
+            @Override
+            public Acknowledge postGeneral(long clientId, String message, int wts, byte[] signature, Map<Long, byte[]> serverMacs, long serverId) {
+                forwarded.countDown();
+                try {
+                    committed.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+
+            @Override
+            public void deliverBatch(List<ReplicaMessage> messages, byte[] mac, long serverId) throws RemoteException {
+                try {
+                    if (!peerKeys.validate(mac, serverId, SignedPayload.batch(messages))) {
+                        return;
+                    }
+                } catch (Exception e) {
+                    throw new RemoteException(e.getMessage());
+                }
+                for (ReplicaMessage message : messages) {
+                    if (message.getType() == ReplicaMessage.COMMIT) {
+                        committed.countDown();
+                    }
+                }
+            }
+        };
+
+        PeerDispatcher peerDispatcher = new PeerDispatcher(9200, senderKeys);
+        long peerId = peerKeys.getServerId();
+        peerDispatcher.call(peerId, new AsyncSendAck(peer, 1, "announcement| ", 1, new byte[0], null, senderKeys.getServerId()));
+        assertTrue(forwarded.await(5, TimeUnit.SECONDS));
+
+        peerDispatcher.send(peerId, peer, ReplicaMessage.commit(1, new Quartet<>(1, "announcement| ", "1", new byte[0])));
+        assertTrue(committed.await(5, TimeUnit.SECONDS));
+        peerDispatcher.shutdown();
+    }
+}
@@ -0,0 +1,54 @@
+package sec.project.server;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import sec.project.library.ReplicaKey;
+import sec.project.library.SignedPayload;
+
+import java.rmi.RemoteException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ReplicaKeysTest
+{
+    // The peer restarted and offered a new key, an offer captured from its previous run must not replace it
+    @Test
+    public void replayedOfferIsRefusedTest() throws Exception {
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair peerPair = generator.generateKeyPair();
+        KeyPair receiverPair = generator.generateKeyPair();
+        ReplicaKeys receiver = new ReplicaKeys(receiverPair.getPublic(), receiverPair.getPrivate());
+
+        final List<ReplicaKey> offers = new ArrayList<>();
+        LocalReplica recording = new LocalReplica(receiver) {
+
+            @Override
+            public ReplicaKey exchangeReplicaKey(ReplicaKey replicaKey, PublicKey serverPublicKey) throws RemoteException {
+                offers.add(replicaKey);
+                return super.exchangeReplicaKey(replicaKey, serverPublicKey);
+            }
+        };
+
+        new ReplicaKeys(peerPair.getPublic(), peerPair.getPrivate()).exchange(receiverPair.getPublic(), recording);
+        Thread.sleep(5);
+        ReplicaKeys restarted = new ReplicaKeys(peerPair.getPublic(), peerPair.getPrivate());
+        restarted.exchange(receiverPair.getPublic(), recording);
+
+        try {
+            receiver.accept(offers.get(0), peerPair.getPublic());
+            fail("A replayed key offer was installed");
+        } catch (Exception e) {
+            // refused
+        }
+
+        SignedPayload payload = SignedPayload.merkleRoots(1);
+        assertTrue(receiver.validate(restarted.authenticate(receiver.getServerId(), payload), restarted.getServerId(), payload));
+    }
+}
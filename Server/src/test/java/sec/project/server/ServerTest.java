@@ -2,21 +2,28 @@ package sec.project.server;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.javatuples.Quartet;
 import org.javatuples.Triplet;
 import org.junit.*;
 import sec.project.library.Acknowledge;
 import sec.project.library.AsymmetricCrypto;
+import sec.project.library.ClientAPI;
+import sec.project.library.KeyRegistry;
 import sec.project.library.ReadView;
+import sec.project.library.SessionCrypto;
+import sec.project.library.SignedPayload;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
 import java.io.File;
-import java.io.UnsupportedEncodingException;
 import java.rmi.RemoteException;
 import java.security.*;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
@@ -25,9 +32,11 @@ import java.util.Scanner;
 public class ServerTest
 {
     PublicKey clientPublicKey;
+    long clientId;
     PrivateKey clientPrivatekey;
     KeyStore clientKeyStore;
     Server server;
+    long loginNonce;
 
     @Before
     public void populateForTest() {
@@ -36,6 +45,7 @@ public class ServerTest
             this.clientKeyStore = AsymmetricCrypto.getKeyStore("data/test/clienttest_keystore.jks", "clienttest");
             this.clientPrivatekey = AsymmetricCrypto.getPrivateKey(clientKeyStore, "clienttest", "clienttest");
             this.clientPublicKey = AsymmetricCrypto.getPublicKeyFromCert("data/test/clienttest_certificate.crt");
+            this.clientId = KeyRegistry.fingerprint(this.clientPublicKey);
         } catch (Exception e) {
 
             e.printStackTrace();
@@ -53,7 +63,7 @@ public class ServerTest
 
         byte[] testBytes = new byte[0];
         try {
-            testBytes = AsymmetricCrypto.wrapDigitalSignature(testString + "1", this.clientPrivatekey);
+            testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post(testString, 1), this.clientPrivatekey);
         } catch (NoSuchPaddingException e) {
             e.printStackTrace();
         } catch (NoSuchAlgorithmException e) {
@@ -64,11 +74,9 @@ public class ServerTest
             e.printStackTrace();
         } catch (IllegalBlockSizeException e) {
             e.printStackTrace();
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
         }
 
-        ack = server.post(this.clientPublicKey, testString, 1, testBytes, false);
+        ack = server.post(this.clientId, testString, 1, testBytes, false, this.clientId);
 
 
     }
@@ -82,7 +90,7 @@ public class ServerTest
 
         byte[] testBytes = new byte[0];
         try {
-            testBytes = AsymmetricCrypto.wrapDigitalSignature(testString + "1" +"1", this.clientPrivatekey);
+            testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.postGeneral(testString, 1, "1"), this.clientPrivatekey);
         } catch (NoSuchPaddingException e) {
             e.printStackTrace();
         } catch (NoSuchAlgorithmException e) {
@@ -93,11 +101,9 @@ public class ServerTest
             e.printStackTrace();
         } catch (IllegalBlockSizeException e) {
             e.printStackTrace();
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
         }
 
-        ack = server.postGeneral(this.clientPublicKey, testString, 1, testBytes, null, null);
+        ack = server.postGeneral(this.clientId, testString, 1, testBytes, null, KeyRegistry.NONE);
 
     }
 
@@ -110,7 +116,7 @@ public class ServerTest
 
         byte[] testBytes = new byte[0];
         try {
-            testBytes = AsymmetricCrypto.wrapDigitalSignature(this.clientPublicKey.toString() + "1" + "1", this.clientPrivatekey);
+            testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.read(this.clientId, 1, 1), this.clientPrivatekey);
         } catch (NoSuchPaddingException e) {
             e.printStackTrace();
         } catch (NoSuchAlgorithmException e) {
@@ -121,11 +127,9 @@ public class ServerTest
             e.printStackTrace();
         } catch (IllegalBlockSizeException e) {
             e.printStackTrace();
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
         }
 
-        readView = server.read(this.clientPublicKey,1,1, testBytes,this.clientPublicKey);
+        readView = server.read(this.clientId, 1, 1, testBytes, this.clientId);
 
     }
     @Test(expected = RemoteException.class)
@@ -137,7 +141,7 @@ public class ServerTest
 
         byte[] testBytes = new byte[0];
         try {
-            testBytes = AsymmetricCrypto.wrapDigitalSignature("1" + "1", this.clientPrivatekey);
+            testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.readGeneral(1, 1), this.clientPrivatekey);
         } catch (NoSuchPaddingException e) {
             e.printStackTrace();
         } catch (NoSuchAlgorithmException e) {
@@ -148,11 +152,9 @@ public class ServerTest
             e.printStackTrace();
         } catch (IllegalBlockSizeException e) {
             e.printStackTrace();
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
         }
 
-        readView = server.readGeneral(1,1, testBytes, this.clientPublicKey);
+        readView = server.readGeneral(1, 1, testBytes, this.clientId);
 
     }
 
@@ -162,7 +164,7 @@ public class ServerTest
         ReadView readView;
         byte[] testBytes;
         try {
-            testBytes = AsymmetricCrypto.wrapDigitalSignature("1", this.clientPrivatekey);
+            testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.register("1"), this.clientPrivatekey);
             server.register(this.clientPublicKey, "1", testBytes);
             server.register(this.clientPublicKey, "1", testBytes);
         } catch (NoSuchPaddingException e) {
@@ -175,8 +177,6 @@ public class ServerTest
             e.printStackTrace();
         } catch (IllegalBlockSizeException e) {
             e.printStackTrace();
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
         }
     }
 
@@ -190,12 +190,12 @@ public class ServerTest
 
         try{
 
-        testBytes = AsymmetricCrypto.wrapDigitalSignature("1", this.clientPrivatekey);
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.register("1"), this.clientPrivatekey);
         server.register(this.clientPublicKey, "1", testBytes);
-        testBytes = AsymmetricCrypto.wrapDigitalSignature(testString + "1", this.clientPrivatekey);
-        ack = server.post(this.clientPublicKey, testString, 1, testBytes, false);
-        testBytes = AsymmetricCrypto.wrapDigitalSignature(this.clientPublicKey.toString() + "1" + "1", this.clientPrivatekey);
-        readView = server.read(this.clientPublicKey,1,1, testBytes,this.clientPublicKey);
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post(testString, 1), this.clientPrivatekey);
+        ack = server.post(this.clientId, testString, 1, testBytes, false, this.clientId);
+        testBytes = SessionCrypto.mac(SignedPayload.read(this.clientId, 1, 1), login(server, 8000));
+        readView = server.read(this.clientId, 1, 1, testBytes, this.clientId);
         assertEquals(testString, readView.getAnnounces().get(0).getValue1());
 
         } catch (Exception e){
@@ -215,12 +215,12 @@ public class ServerTest
 
         try{
 
-            testBytes = AsymmetricCrypto.wrapDigitalSignature("1", this.clientPrivatekey);
+            testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.register("1"), this.clientPrivatekey);
             server.register(this.clientPublicKey, "1", testBytes);
-            testBytes = AsymmetricCrypto.wrapDigitalSignature(testString + "1" + "1", this.clientPrivatekey);
-            ack = server.postGeneral(this.clientPublicKey, testString, 1, testBytes, null, null);
-            testBytes = AsymmetricCrypto.wrapDigitalSignature("1" + "1", this.clientPrivatekey);
-            readView = server.readGeneral(1,1, testBytes,this.clientPublicKey);
+            testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.postGeneral(testString, 1, "1"), this.clientPrivatekey);
+            ack = server.postGeneral(this.clientId, testString, 1, testBytes, null, KeyRegistry.NONE);
+            testBytes = SessionCrypto.mac(SignedPayload.readGeneral(1, 1), login(server, 8000));
+            readView = server.readGeneral(1, 1, testBytes, this.clientId);
             assertEquals(testString, readView.getAnnouncesGeneral().get(0).getValue1());
 
         } catch (Exception e){
@@ -230,12 +230,325 @@ public class ServerTest
         }
     }
 
+    @Test
+    public void restartReplaysLogTest() throws Exception {
+
+        String testString = "ola3| ";
+        ReadView readView;
+        byte[] testBytes;
+
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.register("1"), this.clientPrivatekey);
+        server.register(this.clientPublicKey, "1", testBytes);
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post(testString, 1), this.clientPrivatekey);
+        server.post(this.clientId, testString, 1, testBytes, false, this.clientId);
+
+        Server restarted = new Server(8000);
+        testBytes = SessionCrypto.mac(SignedPayload.read(this.clientId, 1, 1), login(restarted, 8000));
+        readView = restarted.read(this.clientId, 1, 1, testBytes, this.clientId);
+        assertEquals(testString, readView.getAnnounces().get(0).getValue1());
+
+    }
+
+    @Test
+    public void snapshotAndRestartTest() throws Exception {
+
+        ReadView readView;
+        byte[] testBytes;
+
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.register("1"), this.clientPrivatekey);
+        server.register(this.clientPublicKey, "1", testBytes);
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post("ola4| ", 1), this.clientPrivatekey);
+        server.post(this.clientId, "ola4| ", 1, testBytes, false, this.clientId);
+
+        server.saveState();
+
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post("ola5| 1", 2), this.clientPrivatekey);
+        server.post(this.clientId, "ola5| 1", 2, testBytes, false, this.clientId);
+
+        Server restarted = new Server(8000);
+        testBytes = SessionCrypto.mac(SignedPayload.read(this.clientId, 2, 1), login(restarted, 8000));
+        readView = restarted.read(this.clientId, 2, 1, testBytes, this.clientId);
+        assertEquals("ola4| ", readView.getAnnounces().get(0).getValue1());
+        assertEquals("ola5| 1", readView.getAnnounces().get(1).getValue1());
+        assertEquals(1, (int) readView.getAnnounces().get(1).getValue3().get(0));
+
+    }
+
+    @Test
+    public void catchUpAfterDowntimeTest() throws Exception {
+
+        ReadView readView;
+        byte[] testBytes;
+
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.register("1"), this.clientPrivatekey);
+        server.register(this.clientPublicKey, "1", testBytes);
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post("ola6| ", 1), this.clientPrivatekey);
+        server.post(this.clientId, "ola6| ", 1, testBytes, false, this.clientId);
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post("ola7| 1", 2), this.clientPrivatekey);
+        server.post(this.clientId, "ola7| 1", 2, testBytes, false, this.clientId);
+
+        Server stale = new Server(8001);
+        Map<PublicKey, ClientAPI> stubs = new HashMap<>();
+        stubs.put(AsymmetricCrypto.getPublicKeyFromCert("data/keys/server8001_certificate.crt"), stale);
+        server.setStubs(stubs);
+
+        Map<PublicKey, ClientAPI> peers = new HashMap<>();
+        peers.put(AsymmetricCrypto.getPublicKeyFromCert("data/keys/server8000_certificate.crt"), server);
+        stale.exchangeReplicaKeys(peers);
+        stale.catchUpFrom(peers);
+
+        SecretKey sessionKey = login(stale, 8001);
+        testBytes = SessionCrypto.mac(SignedPayload.read(this.clientId, 2, 1), sessionKey);
+        readView = stale.read(this.clientId, 2, 1, testBytes, this.clientId);
+        assertEquals("ola6| ", readView.getAnnounces().get(0).getValue1());
+        assertEquals("ola7| 1", readView.getAnnounces().get(1).getValue1());
+        byte[] wrappedSessionKey = SessionCrypto.wrapKey(sessionKey, AsymmetricCrypto.getPublicKeyFromCert("data/keys/server8001_certificate.crt"));
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.session(wrappedSessionKey, ++this.loginNonce), this.clientPrivatekey);
+        assertEquals(2, stale.login(this.clientPublicKey, wrappedSessionKey, this.loginNonce, testBytes).getMessage().charAt(0) - '0');
+
+    }
+
+    @Test
+    public void replayedCatchUpIsRefusedTest() throws Exception {
+
+        Server stale = new Server(8001);
+        PublicKey stalePublicKey = AsymmetricCrypto.getPublicKeyFromCert("data/keys/server8001_certificate.crt");
+        Map<PublicKey, ClientAPI> stubs = new HashMap<>();
+        stubs.put(stalePublicKey, stale);
+        server.setStubs(stubs);
+        Map<PublicKey, ClientAPI> peers = new HashMap<>();
+        peers.put(AsymmetricCrypto.getPublicKeyFromCert("data/keys/server8000_certificate.crt"), server);
+        stale.exchangeReplicaKeys(peers);
+
+        long serverId = server.getReplicaKeys().getServerId();
+        long staleId = KeyRegistry.fingerprint(stalePublicKey);
+        Map<Long, Integer> clientWts = new HashMap<>();
+        long nonce = stale.getReplicaKeys().nonce();
+        byte[] mac = stale.getReplicaKeys().authenticate(serverId, SignedPayload.catchUp(clientWts, 0, nonce));
+        server.catchUp(clientWts, 0, nonce, mac, staleId);
+
+        //the same request again, and the recorded MAC with other wts, are both refused
+        try {
+            server.catchUp(clientWts, 0, nonce, mac, staleId);
+            fail("A replayed request must be refused");
+        } catch (RemoteException e) {
+        }
+        clientWts.put(this.clientId, 0);
+        try {
+            server.catchUp(clientWts, 0, stale.getReplicaKeys().nonce(), mac, staleId);
+            fail("A request must be authenticated with every parameter");
+        } catch (RemoteException e) {
+        }
+        stale.shutdown();
+
+    }
+
+    @Test
+    public void antiEntropyRepairsMissedAnnouncementsTest() throws Exception {
+
+        ReadView readView;
+        byte[] testBytes;
+
+        Server lagging = new Server(8001);
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.register("1"), this.clientPrivatekey);
+        server.register(this.clientPublicKey, "1", testBytes);
+        lagging.register(this.clientPublicKey, "1", testBytes);
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post("ola8| ", 1), this.clientPrivatekey);
+        server.post(this.clientId, "ola8| ", 1, testBytes, false, this.clientId);
+        lagging.post(this.clientId, "ola8| ", 1, testBytes, false, this.clientId);
+
+        //delivered everywhere but at the lagging replica
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post("ola9| 1", 2), this.clientPrivatekey);
+        server.post(this.clientId, "ola9| 1", 2, testBytes, false, this.clientId);
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.postGeneral("ola10| ", 1, "1"), this.clientPrivatekey);
+        server.postGeneral(this.clientId, "ola10| ", 1, testBytes, null, KeyRegistry.NONE);
+
+        Map<PublicKey, ClientAPI> stubs = new HashMap<>();
+        stubs.put(AsymmetricCrypto.getPublicKeyFromCert("data/keys/server8000_certificate.crt"), server);
+        stubs.put(AsymmetricCrypto.getPublicKeyFromCert("data/keys/server8001_certificate.crt"), lagging);
+        server.setStubs(stubs);
+        lagging.setStubs(stubs);
+        lagging.exchangeReplicaKeys(stubs);
+        lagging.antiEntropy();
+
+        SecretKey sessionKey = login(lagging, 8001);
+        testBytes = SessionCrypto.mac(SignedPayload.read(this.clientId, 2, 1), sessionKey);
+        readView = lagging.read(this.clientId, 2, 1, testBytes, this.clientId);
+        assertEquals("ola9| 1", readView.getAnnounces().get(1).getValue1());
+        testBytes = SessionCrypto.mac(SignedPayload.readGeneral(1, 1), sessionKey);
+        readView = lagging.readGeneral(1, 1, testBytes, this.clientId);
+        assertEquals("ola10| ", readView.getAnnouncesGeneral().get(0).getValue1());
+        lagging.shutdown();
+
+    }
+
+    @Test(expected = RemoteException.class)
+    public void readWithoutLoginTest() throws Exception {
+
+        byte[] testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.register("1"), this.clientPrivatekey);
+        server.register(this.clientPublicKey, "1", testBytes);
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.read(this.clientId, 1, 1), this.clientPrivatekey);
+        server.read(this.clientId, 1, 1, testBytes, this.clientId);
+
+    }
+
+    @Test
+    public void loginAuthenticatesReadViewTest() throws Exception {
+
+        byte[] testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.register("1"), this.clientPrivatekey);
+        server.register(this.clientPublicKey, "1", testBytes);
+        SecretKey sessionKey = login(server, 8000);
+        testBytes = SessionCrypto.mac(SignedPayload.readGeneral(1, 1), sessionKey);
+        ReadView readView = server.readGeneral(1, 1, testBytes, this.clientId);
+        assertTrue(SessionCrypto.validateMac(readView.getSignature(), SignedPayload.readGeneralView(readView.getRoot(), 1), sessionKey));
+
+    }
+
+    @Test
+    public void replicaKeysAuthenticateReplicaMessagesTest() throws Exception {
+
+        Server other = new Server(8001);
+        PublicKey serverPublicKey = AsymmetricCrypto.getPublicKeyFromCert("data/keys/server8000_certificate.crt");
+        PublicKey otherPublicKey = AsymmetricCrypto.getPublicKeyFromCert("data/keys/server8001_certificate.crt");
+        Map<PublicKey, ClientAPI> stubs = new HashMap<>();
+        stubs.put(serverPublicKey, server);
+        other.exchangeReplicaKeys(stubs);
+
+        long serverId = KeyRegistry.fingerprint(serverPublicKey);
+        long otherId = KeyRegistry.fingerprint(otherPublicKey);
+
+        Map<Long, byte[]> macs = other.getReplicaKeys().authenticate(SignedPayload.abort(this.clientId, 1));
+        assertTrue(server.getReplicaKeys().validate(macs, otherId, SignedPayload.abort(this.clientId, 1)));
+        assertTrue(!server.getReplicaKeys().validate(macs, serverId, SignedPayload.abort(this.clientId, 1)));
+        assertTrue(!server.getReplicaKeys().validate(macs, otherId, new SignedPayload("commit")));
+        //an abort is bound to the write it names
+        assertTrue(!server.getReplicaKeys().validate(macs, otherId, SignedPayload.abort(this.clientId, 2)));
+
+        macs = server.getReplicaKeys().authenticate(SignedPayload.abort(this.clientId, 1));
+        assertTrue(other.getReplicaKeys().validate(macs, serverId, SignedPayload.abort(this.clientId, 1)));
+        other.shutdown();
+
+    }
+
+    private SecretKey login(Server target, int port) throws Exception {
+        SecretKey sessionKey = SessionCrypto.generateKey();
+        byte[] wrappedSessionKey = SessionCrypto.wrapKey(sessionKey, AsymmetricCrypto.getPublicKeyFromCert("data/keys/server" + port + "_certificate.crt"));
+        byte[] signature = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.session(wrappedSessionKey, ++this.loginNonce), this.clientPrivatekey);
+        Acknowledge ack = target.login(this.clientPublicKey, wrappedSessionKey, this.loginNonce, signature);
+        assertTrue(SessionCrypto.validateMac(ack.getSignature(), SignedPayload.login(ack.getMessage()), sessionKey));
+        return sessionKey;
+    }
+
+    // A login seen before, or older than the current one, must not replace the session
+    @Test
+    public void replayedLoginIsRefusedTest() throws Exception {
+
+        byte[] testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.register("1"), this.clientPrivatekey);
+        server.register(this.clientPublicKey, "1", testBytes);
+
+        SecretKey oldKey = SessionCrypto.generateKey();
+        byte[] wrappedOldKey = SessionCrypto.wrapKey(oldKey, AsymmetricCrypto.getPublicKeyFromCert("data/keys/server8000_certificate.crt"));
+        byte[] oldSignature = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.session(wrappedOldKey, ++this.loginNonce), this.clientPrivatekey);
+        long oldNonce = this.loginNonce;
+        server.login(this.clientPublicKey, wrappedOldKey, oldNonce, oldSignature);
+        SecretKey sessionKey = login(server, 8000);
+
+        try {
+            server.login(this.clientPublicKey, wrappedOldKey, oldNonce, oldSignature);
+            fail();
+        } catch (RemoteException e) {
+            //refused
+        }
+
+        try {
+            server.login(this.clientPublicKey, wrappedOldKey, this.loginNonce, oldSignature);
+            fail();
+        } catch (RemoteException e) {
+            //the nonce is signed with the key
+        }
+
+        //the server still answers under the newest session
+        testBytes = SessionCrypto.mac(SignedPayload.readGeneral(1, 1), sessionKey);
+        ReadView readView = server.readGeneral(1, 1, testBytes, this.clientId);
+        assertTrue(SessionCrypto.validateMac(readView.getSignature(), SignedPayload.readGeneralView(readView.getRoot(), 1), sessionKey));
+
+    }
+
+    // A write-back is acknowledged under the session of the reader sending it, a sender with no session gets no MAC
+    @Test
+    public void writeBackAckIsAuthenticatedTest() throws Exception {
+
+        Acknowledge ack;
+        byte[] testBytes;
+
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.register("1"), this.clientPrivatekey);
+        server.register(this.clientPublicKey, "1", testBytes);
+        SecretKey sessionKey = login(server, 8000);
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post("ola10| ", 1), this.clientPrivatekey);
+        server.post(this.clientId, "ola10| ", 1, testBytes, false, this.clientId);
+
+        ack = server.post(this.clientId, "ola10| ", 1, testBytes, true, this.clientId);
+        assertTrue(SessionCrypto.validateMac(ack.getSignature(), SignedPayload.acknowledge(ack.getMessage(), ack.getWts()), sessionKey));
+
+        ack = server.post(this.clientId, "ola10| ", 1, testBytes, true, this.clientId + 1);
+        assertEquals(null, ack.getSignature());
+
+    }
+
+    // The board's segment cannot be written the first time, the next snapshot must still save it before the log
+    // records holding its announcements are deleted
+    @Test
+    public void failedBoardIsSavedByNextSnapshotTest() throws Exception {
+
+        ReadView readView;
+        byte[] testBytes;
+
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.register("1"), this.clientPrivatekey);
+        server.register(this.clientPublicKey, "1", testBytes);
+        testBytes = AsymmetricCrypto.wrapDigitalSignature(SignedPayload.post("ola6| ", 1), this.clientPrivatekey);
+        server.post(this.clientId, "ola6| ", 1, testBytes, false, this.clientId);
+
+        File segment = new File("data/state8000", ShardStore.clientSegmentName(this.clientPublicKey));
+        segment.mkdirs();
+        server.saveState();
+        segment.delete();
+        server.saveState();
+
+        Server restarted = new Server(8000);
+        testBytes = SessionCrypto.mac(SignedPayload.read(this.clientId, 1, 1), login(restarted, 8000));
+        readView = restarted.read(this.clientId, 1, 1, testBytes, this.clientId);
+        assertEquals("ola6| ", readView.getAnnounces().get(0).getValue1());
+
+    }
+
     @After
     public void cleanState() {
-        File file = new File("data/state8000.txt");
+        cleanState(8000);
+        cleanState(8001);
+    }
+
+    private void cleanState(int port) {
+        File file = new File("data/state" + port + ".txt");
         file.delete();
-        file = new File("data/state8000_backup.txt");
+        file = new File("data/state" + port + "_backup.txt");
         file.delete();
+        file = new File("data/state" + port + ".tmp");
+        file.delete();
+
+        File shardDirectory = new File("data/state" + port);
+        if (shardDirectory.exists()) {
+            for (File shard : shardDirectory.listFiles()) {
+                shard.delete();
+            }
+            shardDirectory.delete();
+        }
+
+        File[] logSegments = new File("data").listFiles();
+        for (File segment : logSegments) {
+            if (segment.getName().startsWith("log" + port + "_")) {
+                segment.delete();
+            }
+        }
     }
 
 }
@@ -0,0 +1,174 @@
+package sec.project.server;
+
+import org.javatuples.Triplet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares saving and loading one board with Java serialization (the old State format), the binary shard
+ * format and an announcement segment, whose load only indexes the file. Each format is saved and loaded
+ * dpas.benchmark.warmUp times unmeasured, then dpas.benchmark.repeats times, and the median is reported.
+ * Not a unit test, run it by hand, e.g. with -Xmx4g for a million announcements:
+ *
+ *   java -cp ... sec.project.server.StateFormatBenchmark 10000,100000,1000000
+ */
+public class StateFormatBenchmark
+{
+    private static final int WARM_UP = Integer.getInteger("dpas.benchmark.warmUp", 3);
+    private static final int REPEATS = Integer.getInteger("dpas.benchmark.repeats", 7);
+
+    private interface Format {
+        void save(File file) throws Exception;
+        void load(File file) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        String sizes = args.length > 0 ? args[0] : "10000,100000,1000000";
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair client = generator.generateKeyPair();
+
+        File directory = new File("target/state-benchmark");
+        directory.mkdirs();
+
+        System.out.println(WARM_UP + " warm-up runs, median of " + REPEATS);
+        System.out.println("announcements | format | save ms | load ms | bytes");
+
+        for (String size : sizes.split(",")) {
+
+            int announcements = Integer.parseInt(size.trim());
+            final ClientLibrary clientLibrary = populate(announcements, client);
+            final List<Announcement> unpersisted = clientLibrary.getAnnouncements().getUnpersisted();
+
+            //the old State held every board's announcements as a map
+            final Map<Integer, Announcement> board = new HashMap<>();
+            for (Announcement announcement : unpersisted) {
+                board.put(announcement.getWts(), announcement);
+            }
+
+            measure(announcements, "java serialization", new File(directory, "board.ser"), new Format() {
+                @Override
+                public void save(File file) throws Exception {
+                    try (ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                        output.writeObject(board);
+                    }
+                }
+
+                @Override
+                public void load(File file) throws Exception {
+                    try (ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                        input.readObject();
+                    }
+                }
+            });
+
+            measure(announcements, "binary shard", new File(directory, "board.bin"), new Format() {
+                @Override
+                public void save(File file) throws Exception {
+                    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                        StateCodec.writeClientShard(output, clientLibrary);
+                    }
+                }
+
+                @Override
+                public void load(File file) throws Exception {
+                    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                        StateCodec.readClientShard(input);
+                    }
+                }
+            });
+
+            measure(announcements, "announcement segment", new File(directory, "board.seg"), new Format() {
+                @Override
+                public void save(File file) throws Exception {
+                    AnnouncementSegment segment = AnnouncementSegment.create(file,
+                            StateCodec.encodeClientBoard(clientLibrary.getClientNumber(), clientLibrary.getClientPublicKey()));
+                    segment.append(unpersisted);
+                    segment.close();
+                }
+
+                @Override
+                public void load(File file) throws Exception {
+                    AnnouncementSegment.open(file).close();
+                }
+            });
+        }
+
+        directory.delete();
+    }
+
+    // A fresh file for every run, so a save never appends to or overwrites the one before
+    private static void measure(int announcements, String name, File file, Format format) throws Exception {
+
+        long[] saves = new long[REPEATS];
+        long[] loads = new long[REPEATS];
+        long bytes = 0;
+
+        for (int run = 0; run < WARM_UP + REPEATS; run++) {
+
+            file.delete();
+            long start = System.nanoTime();
+            format.save(file);
+            long saved = System.nanoTime();
+            format.load(file);
+            long loaded = System.nanoTime();
+            bytes = file.length();
+
+            if (run >= WARM_UP) {
+                saves[run - WARM_UP] = saved - start;
+                loads[run - WARM_UP] = loaded - saved;
+            }
+        }
+
+        file.delete();
+        System.out.println(announcements + " | " + name + " | " + median(saves) / 1000000 + " | "
+                + median(loads) / 1000000 + " | " + bytes);
+    }
+
+    private static ClientLibrary populate(int announcements, KeyPair client) {
+
+        Random random = new Random(42);
+        ClientLibrary clientLibrary = new ClientLibrary("1", client.getPublic());
+
+        for (int wts = 1; wts <= announcements; wts++) {
+
+            byte[] signature = new byte[256];
+            random.nextBytes(signature);
+
+            ArrayList<Integer> references = new ArrayList<>();
+            if (wts > 2) {
+                references.add(wts - 1);
+                references.add(random.nextInt(wts - 1) + 1);
+            }
+
+            clientLibrary.restoreAnnouncement(new Announcement(new Triplet<>(wts, "announcement number " + wts
+                    + " with a typical amount of text in it| " + references, signature), references));
+        }
+
+        return clientLibrary;
+    }
+
+    private static long median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}